@@ -0,0 +1,154 @@
+package me.touko.library.core;
+
+/**
+ * the collapse math of CollapseRelativeBar, it doesn't depend on android, so it can be tested
+ * and benchmarked on a plain jvm.
+ * <p/>
+ * All sizes and positions are in px, a collapse percent is 0 when expanded and 1 when collapsed.
+ */
+public final class CollapseMath {
+  /**
+   * the child is vertically centered in the collapsed bar
+   */
+  public static final int MODE_PIN = 0;
+  /**
+   * the child leaves the bar from its top edge
+   */
+  public static final int MODE_OUT = 1;
+  /**
+   * the child vertical position is only decided by its collapsed margins
+   */
+  public static final int MODE_NONE = 2;
+
+  private CollapseMath() {
+  }
+
+  public static float getPointBetweenTwoValue(float point1, float point2, float percent) {
+    float distance = Math.abs(point1 - point2);
+    if (point1 < point2) {
+      return point1 + distance * percent;
+    } else {
+      return point1 - distance * percent;
+    }
+  }
+
+  /**
+   * interpolate each channel of two packed argb colors
+   */
+  public static int getColorBetweenTwoValue(int color1, int color2, float percent) {
+    int a = (int) getPointBetweenTwoValue(color1 >>> 24, color2 >>> 24, percent);
+    int r = (int) getPointBetweenTwoValue((color1 >> 16) & 0xff, (color2 >> 16) & 0xff, percent);
+    int g = (int) getPointBetweenTwoValue((color1 >> 8) & 0xff, (color2 >> 8) & 0xff, percent);
+    int b = (int) getPointBetweenTwoValue(color1 & 0xff, color2 & 0xff, percent);
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+
+  /**
+   * the size change of a scaled view
+   */
+  public static float getScaleDelta(float originValue, float scale) {
+    return originValue * scale - originValue;
+  }
+
+  /**
+   * the left or top edge of a translated and scaled view, it scales around its pivot
+   *
+   * @param start the laid out left or top
+   * @param pivot the pivot relative to the start
+   */
+  public static float getTransformedStart(int start, float translation, float pivot,
+                                          float scale) {
+    return start + translation + pivot * (1f - scale);
+  }
+
+  /**
+   * whether a span starting at start doesn't overlap [0, size) at all, the length can be
+   * negative for a mirrored view
+   */
+  public static boolean isOutside(float start, float length, int size) {
+    float end = start + length;
+    return Math.max(start, end) <= 0 || Math.min(start, end) >= size;
+  }
+
+  /**
+   * clamp a bar height between its collapsed and expanded height
+   */
+  public static int clampHeight(int height, int collapsedHeight, int expandedHeight) {
+    if (height < collapsedHeight) {
+      return collapsedHeight;
+    } else if (height < 0) {
+      return 0;
+    } else if (height > expandedHeight) {
+      return expandedHeight;
+    }
+    return height;
+  }
+
+  /**
+   * the collapse percent of a bar height, 0 when expanded and 1 when collapsed
+   */
+  public static float getCollapsePercent(int height, int collapsedHeight, int expandedHeight) {
+    return (float) (expandedHeight - height) / (float) (expandedHeight - collapsedHeight);
+  }
+
+  /**
+   * the collapsed translationY of a child for {@link #MODE_PIN} or {@link #MODE_OUT}, 0 for
+   * {@link #MODE_NONE}
+   *
+   * @param originTop       the child top when expanded
+   * @param originHeight    the child height when expanded
+   * @param collapsedScaleY the child scaleY when collapsed
+   * @param collapsedHeight the bar height when collapsed
+   * @param paddingTop      the bar paddingTop
+   */
+  public static float getModeTranslationY(int mode, int originTop, int originHeight,
+                                          float collapsedScaleY, int collapsedHeight,
+                                          int paddingTop) {
+    float targetMarginTop;
+    switch (mode) {
+      case MODE_PIN:
+        targetMarginTop = collapsedHeight / 2 - originHeight / 2 - paddingTop;
+        break;
+      case MODE_OUT:
+        targetMarginTop = -originHeight - getScaleDelta(originHeight, collapsedScaleY) / 2;
+        break;
+      default:
+        return 0;
+    }
+    return -(originTop - targetMarginTop);
+  }
+
+  /**
+   * the collapsed translationY of a child which has a collapsed marginTop
+   */
+  public static float getMarginTopTranslationY(int originTop, int originHeight,
+                                               float collapsedScaleY, int marginTop,
+                                               int paddingTop) {
+    float totalYDistance = originTop - (marginTop + paddingTop
+        + getScaleDelta(originHeight, collapsedScaleY) / 2);
+    return -totalYDistance;
+  }
+
+  /**
+   * the collapsed translationX of a child which has a collapsed marginLeft
+   */
+  public static int getMarginLeftTranslationX(int originLeft, int originWidth,
+                                              float collapsedScaleX, int marginLeft,
+                                              int paddingLeft) {
+    int totalXDistance = (int) (originLeft - paddingLeft - marginLeft
+        - getScaleDelta(originWidth, collapsedScaleX) / 2);
+    return -totalXDistance;
+  }
+
+  /**
+   * the collapsed translationX of a child which has a collapsed marginRight
+   *
+   * @param barWidth the bar width
+   */
+  public static int getMarginRightTranslationX(int originRight, int originWidth,
+                                               float collapsedScaleX, int marginRight,
+                                               int barWidth, int paddingRight) {
+    return (int) (barWidth - paddingRight - marginRight - originRight
+        - getScaleDelta(originWidth, collapsedScaleX) / 2);
+  }
+}
@@ -0,0 +1,130 @@
+package me.touko.library.core;
+
+/**
+ * estimate the scroll velocity from a ring buffer of the recent scroll deltas, and the scroll
+ * direction from the velocity with hysteresis. the direction reverses once the velocity in the
+ * other direction is fast enough, once the scroll moved back by a slop, or once every delta went
+ * the other way for a whole window, so a jittery drag doesn't flip it on every delta but a slow
+ * deliberate reversal still does
+ */
+public final class ScrollDirectionTracker {
+  public static final int DIRECTION_NONE = 0;
+  public static final int DIRECTION_POSITIVE = 1;
+  public static final int DIRECTION_NEGATIVE = -1;
+
+  // a single delta is taken as spread over a frame
+  private static final long MIN_ELAPSED_MILLIS = 16;
+
+  private final int[] deltas;
+  private final long[] times;
+  private final long windowMillis;
+  private final float reverseVelocity;
+  private final int reverseDistance;
+  // the index the next delta is written to
+  private int head;
+  private int count;
+  private int direction = DIRECTION_NONE;
+  // how far the scroll moved back against the direction since it last went forward
+  private int reverseDisplacement;
+  // the time of the first delta of the current run against the direction
+  private long reverseStartMillis;
+  private boolean reversing;
+
+  /**
+   * @param capacity        the max count of recent deltas kept
+   * @param windowMillis    only the deltas within this time are used for the velocity
+   * @param reverseVelocity the min velocity in px per second to reverse the direction
+   * @param reverseDistance the min distance in px moved back to reverse the direction
+   */
+  public ScrollDirectionTracker(int capacity, long windowMillis, float reverseVelocity,
+                                int reverseDistance) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    deltas = new int[capacity];
+    times = new long[capacity];
+    this.windowMillis = windowMillis;
+    this.reverseVelocity = reverseVelocity;
+    this.reverseDistance = reverseDistance;
+  }
+
+  /**
+   * @return the direction after the delta
+   */
+  public int addDelta(int delta, long timeMillis) {
+    deltas[head] = delta;
+    times[head] = timeMillis;
+    head = (head + 1) % deltas.length;
+    if (count < deltas.length) {
+      count++;
+    }
+    trackReversal(delta, timeMillis);
+    float velocity = getVelocity(timeMillis);
+    if (velocity != 0) {
+      int velocityDirection = velocity > 0 ? DIRECTION_POSITIVE : DIRECTION_NEGATIVE;
+      if (direction == DIRECTION_NONE
+          || velocityDirection != direction && Math.abs(velocity) >= reverseVelocity) {
+        setDirection(velocityDirection);
+      }
+    }
+    if (direction != DIRECTION_NONE && (reverseDisplacement >= reverseDistance
+        || reversing && timeMillis - reverseStartMillis >= windowMillis)) {
+      setDirection(-direction);
+    }
+    return direction;
+  }
+
+  private void trackReversal(int delta, long timeMillis) {
+    if (direction == DIRECTION_NONE || delta == 0) {
+      return;
+    }
+    int forward = delta * direction;
+    if (forward > 0) {
+      reverseDisplacement = Math.max(0, reverseDisplacement - forward);
+      reversing = false;
+    } else {
+      reverseDisplacement -= forward;
+      if (!reversing) {
+        reversing = true;
+        reverseStartMillis = timeMillis;
+      }
+    }
+  }
+
+  private void setDirection(int direction) {
+    if (this.direction != direction) {
+      this.direction = direction;
+      reverseDisplacement = 0;
+      reversing = false;
+    }
+  }
+
+  /**
+   * the velocity in px per second of the deltas within the window before the time
+   */
+  public float getVelocity(long timeMillis) {
+    int sum = 0;
+    long oldest = timeMillis;
+    for (int i = 0; i < count; i++) {
+      int index = (head - 1 - i + deltas.length) % deltas.length;
+      if (timeMillis - times[index] > windowMillis) {
+        break;
+      }
+      sum += deltas[index];
+      oldest = times[index];
+    }
+    return sum * 1000f / Math.max(timeMillis - oldest, MIN_ELAPSED_MILLIS);
+  }
+
+  public int getDirection() {
+    return direction;
+  }
+
+  public void reset() {
+    head = 0;
+    count = 0;
+    direction = DIRECTION_NONE;
+    reverseDisplacement = 0;
+    reversing = false;
+  }
+}
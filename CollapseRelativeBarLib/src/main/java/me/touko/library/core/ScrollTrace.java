@@ -0,0 +1,208 @@
+package me.touko.library.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * the nested scroll callbacks reaching a bar in order, with their deltas and times, so the same
+ * input can be replayed on another device or a jvm.
+ * <p>
+ * the binary form is a magic, a version and the event count, then per event its type, the
+ * microseconds since the previous event and its value, all variable length except the fling
+ * velocity
+ */
+public final class ScrollTrace {
+  public static final int EVENT_START = 0;
+  public static final int EVENT_PRE_SCROLL = 1;
+  public static final int EVENT_SCROLL = 2;
+  public static final int EVENT_PRE_FLING = 3;
+  public static final int EVENT_STOP = 4;
+
+  // "CLST"
+  private static final int MAGIC = 0x434c5354;
+  private static final int VERSION = 1;
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final int MAX_READ_CAPACITY = 4096;
+
+  private byte[] types;
+  private long[] timesNanos;
+  private int[] values;
+  private int size;
+
+  public ScrollTrace() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ScrollTrace(int capacity) {
+    capacity = Math.max(capacity, 1);
+    types = new byte[capacity];
+    timesNanos = new long[capacity];
+    values = new int[capacity];
+  }
+
+  /**
+   * @param type      one of the EVENT_* constants
+   * @param timeNanos the {@link System#nanoTime()} of the event, not before the last one
+   * @param value     the dy of a scroll, 0 for a start or a stop
+   */
+  public void add(int type, long timeNanos, int value) {
+    if (type < EVENT_START || type > EVENT_STOP) {
+      throw new IllegalArgumentException("unknown event type " + type);
+    }
+    if (size > 0 && timeNanos < timesNanos[size - 1]) {
+      throw new IllegalArgumentException("events must be added in time order");
+    }
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      timesNanos = Arrays.copyOf(timesNanos, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    types[size] = (byte) type;
+    timesNanos[size] = timeNanos;
+    values[size] = value;
+    size++;
+  }
+
+  public void addFling(long timeNanos, float velocity) {
+    add(EVENT_PRE_FLING, timeNanos, Float.floatToIntBits(velocity));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getType(int index) {
+    return types[index];
+  }
+
+  public long getTimeNanos(int index) {
+    return timesNanos[index];
+  }
+
+  /**
+   * the dy of a {@link #EVENT_PRE_SCROLL} or {@link #EVENT_SCROLL}
+   */
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * the velocity of a {@link #EVENT_PRE_FLING}
+   */
+  public float getVelocity(int index) {
+    return Float.intBitsToFloat(values[index]);
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * the times are written in microseconds relative to the first event
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    writeInt(out, MAGIC);
+    out.write(VERSION);
+    writeVarInt(out, size);
+    long previousMicros = 0;
+    for (int i = 0; i < size; i++) {
+      long micros = (timesNanos[i] - timesNanos[0]) / 1000;
+      out.write(types[i]);
+      writeVarInt(out, micros - previousMicros);
+      previousMicros = micros;
+      switch (types[i]) {
+        case EVENT_PRE_SCROLL:
+        case EVENT_SCROLL:
+          // zigzag, so the small negative deltas stay small
+          writeVarInt(out, ((values[i] << 1) ^ (values[i] >> 31)) & 0xffffffffL);
+          break;
+        case EVENT_PRE_FLING:
+          writeInt(out, values[i]);
+          break;
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * @throws IOException if the stream isn't a trace of a known version, or is cut off
+   */
+  public static ScrollTrace readFrom(InputStream in) throws IOException {
+    if (readInt(in) != MAGIC) {
+      throw new IOException("not a scroll trace");
+    }
+    int version = readByte(in);
+    if (version != VERSION) {
+      throw new IOException("unknown scroll trace version " + version);
+    }
+    int size = (int) readVarInt(in);
+    // the count isn't trusted for the capacity, a broken stream fails on its end instead
+    ScrollTrace trace = new ScrollTrace(Math.min(size, MAX_READ_CAPACITY));
+    long micros = 0;
+    for (int i = 0; i < size; i++) {
+      int type = readByte(in);
+      micros += readVarInt(in);
+      int value = 0;
+      switch (type) {
+        case EVENT_START:
+        case EVENT_STOP:
+          break;
+        case EVENT_PRE_SCROLL:
+        case EVENT_SCROLL:
+          int zigzag = (int) readVarInt(in);
+          value = (zigzag >>> 1) ^ -(zigzag & 1);
+          break;
+        case EVENT_PRE_FLING:
+          value = readInt(in);
+          break;
+        default:
+          throw new IOException("unknown event type " + type);
+      }
+      trace.add(type, micros * 1000, value);
+    }
+    return trace;
+  }
+
+  private static void writeVarInt(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarInt(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed varint");
+  }
+
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static int readInt(InputStream in) throws IOException {
+    return readByte(in) << 24 | readByte(in) << 16 | readByte(in) << 8 | readByte(in);
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("scroll trace is cut off");
+    }
+    return b;
+  }
+}
@@ -0,0 +1,65 @@
+package me.touko.library.core;
+
+/**
+ * the progress of a child property over the collapse percent, baked into a fixed resolution
+ * table, so a frame only needs a lookup and a lerp instead of evaluating an interpolator
+ */
+public final class Timeline {
+  private final float[] samples;
+
+  /**
+   * @param samples the progress at evenly spaced collapse percents, from 0 to 1 inclusive,
+   *                at least 2 samples
+   */
+  public Timeline(float[] samples) {
+    if (samples.length < 2) {
+      throw new IllegalArgumentException("a timeline needs at least 2 samples");
+    }
+    this.samples = samples;
+  }
+
+  /**
+   * the sample count of a timeline baked with the given steps
+   */
+  public static int getSampleCount(int steps) {
+    return steps + 1;
+  }
+
+  /**
+   * the collapse percent of a sample
+   */
+  public static float getSamplePercent(int index, int sampleCount) {
+    return (float) index / (sampleCount - 1);
+  }
+
+  /**
+   * map the collapse percent into a keyframe range, the progress is 0 before the range starts
+   * and 1 after it ends
+   *
+   * @param start the collapse percent the property starts to change
+   * @param end   the collapse percent the property reaches its collapsed value
+   */
+  public static float getRangeProgress(float percent, float start, float end) {
+    if (percent <= start) {
+      return 0f;
+    } else if (percent >= end) {
+      return 1f;
+    }
+    return (percent - start) / (end - start);
+  }
+
+  public float getProgress(float percent) {
+    int last = samples.length - 1;
+    if (percent <= 0f) {
+      return samples[0];
+    } else if (percent >= 1f) {
+      return samples[last];
+    }
+    float position = percent * last;
+    int index = (int) position;
+    if (index >= last) {
+      return samples[last];
+    }
+    return samples[index] + (samples[index + 1] - samples[index]) * (position - index);
+  }
+}
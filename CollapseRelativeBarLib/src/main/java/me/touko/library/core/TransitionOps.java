@@ -0,0 +1,85 @@
+package me.touko.library.core;
+
+/**
+ * the property ops of a child collapse transition, kept in primitive arrays with the start and
+ * end values already resolved. Computes the value of an op for a collapse percent and skips the
+ * changes smaller than the op threshold, the caller pushes the value to its view.
+ */
+public final class TransitionOps {
+  public static final int OP_TRANSLATION_X = 0;
+  public static final int OP_TRANSLATION_Y = 1;
+  public static final int OP_WIDTH = 2;
+  public static final int OP_HEIGHT = 3;
+  public static final int OP_SCALE_X = 4;
+  public static final int OP_SCALE_Y = 5;
+  public static final int OP_ALPHA = 6;
+  public static final int MAX_OP_COUNT = 7;
+
+  private final int[] ops = new int[MAX_OP_COUNT];
+  private final float[] startValues = new float[MAX_OP_COUNT];
+  private final float[] endValues = new float[MAX_OP_COUNT];
+  private final float[] thresholds = new float[MAX_OP_COUNT];
+  private final float[] lastValues = new float[MAX_OP_COUNT];
+  private int appliedOps;
+  private int opCount;
+
+  /**
+   * @param threshold the min change of the value before it is pushed again
+   */
+  public void add(int op, float startValue, float endValue, float threshold) {
+    ops[opCount] = op;
+    startValues[opCount] = startValue;
+    endValues[opCount] = endValue;
+    thresholds[opCount] = threshold;
+    opCount++;
+  }
+
+  public int size() {
+    return opCount;
+  }
+
+  public int getOp(int index) {
+    return ops[index];
+  }
+
+  public float getStartValue(int index) {
+    return startValues[index];
+  }
+
+  public float getEndValue(int index) {
+    return endValues[index];
+  }
+
+  /**
+   * the value computed by the last {@link #update(int, float, boolean)} returning true
+   */
+  public float getValue(int index) {
+    return lastValues[index];
+  }
+
+  /**
+   * compute the value of an op, sizes are truncated to whole px
+   *
+   * @param percent the interpolated collapse percent of the op
+   * @param exact   push any change, used to land exactly on the end values
+   * @return whether the value changed enough to be pushed, read it by {@link #getValue(int)}
+   */
+  public boolean update(int index, float percent, boolean exact) {
+    int op = ops[index];
+    float value = CollapseMath.getPointBetweenTwoValue(startValues[index], endValues[index],
+        percent);
+    if (op == OP_WIDTH || op == OP_HEIGHT) {
+      value = (int) value;
+    }
+    int opBit = 1 << index;
+    if ((appliedOps & opBit) != 0) {
+      float change = Math.abs(value - lastValues[index]);
+      if (change == 0 || !exact && change <= thresholds[index]) {
+        return false;
+      }
+    }
+    appliedOps |= opBit;
+    lastValues[index] = value;
+    return true;
+  }
+}
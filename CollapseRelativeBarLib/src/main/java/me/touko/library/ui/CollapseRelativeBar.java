@@ -1,17 +1,29 @@
 package me.touko.library.ui;
 
 import android.annotation.TargetApi;
-import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
-import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.os.TraceCompat;
+import android.support.v4.view.GravityCompat;
+import android.support.v4.view.OnApplyWindowInsetsListener;
 import android.support.v4.view.ViewCompat;
+import android.support.v4.view.WindowInsetsCompat;
+import android.support.v4.widget.NestedScrollView;
+import android.support.v4.widget.ScrollerCompat;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -20,16 +32,20 @@ import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
+import android.widget.ScrollView;
 import android.widget.TextView;
 
-import com.readystatesoftware.systembartint.SystemBarTintManager;
 
-import java.lang.reflect.Field;
-import java.util.HashSet;
-import java.util.Set;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
 
 import me.touko.library.R;
-import me.touko.library.utils.ReflectionUtils;
+import me.touko.library.core.CollapseMath;
+import me.touko.library.core.ScrollDirectionTracker;
+import me.touko.library.core.ScrollTrace;
+import me.touko.library.core.Timeline;
+import me.touko.library.core.TransitionOps;
 
 /**
  * CollapseRelativeBar extends RelativeLayout, you only need to define child collapsed state,
@@ -48,34 +64,170 @@ import me.touko.library.utils.ReflectionUtils;
  */
 @CoordinatorLayout.DefaultBehavior(CollapseRelativeBar.CollapseBehavior.class)
 public class CollapseRelativeBar extends RelativeLayout {
+  /**
+   * collapse by changing the bar's layout height, every scroll delta needs a layout pass
+   */
+  public static final int COLLAPSE_STRATEGY_HEIGHT = 0;
+  /**
+   * keep the expanded layout height and only clip the bar to its visible height,
+   * the scroll path doesn't need any layout pass
+   */
+  public static final int COLLAPSE_STRATEGY_CLIP = 1;
+
+  /**
+   * never put children on a hardware layer
+   */
+  public static final int USE_LAYER_NONE = 0;
+  /**
+   * put the children which only change translation, scale or alpha on a hardware layer while the
+   * bar is scrolling or animating
+   */
+  public static final int USE_LAYER_AUTO = 1;
+
+  /**
+   * clWidth and clHeight change the child LayoutParams on every frame, the child is measured and
+   * laid out again each time
+   */
+  public static final int SIZE_MODE_LAYOUT = 0;
+  /**
+   * clWidth and clHeight are shown by clipping the child measured in the expanded state, the
+   * LayoutParams are only committed when the bar is fully collapsed or expanded, only works on
+   * api 18 and above and for sizes smaller than the expanded size, falls back to
+   * {@link #SIZE_MODE_LAYOUT} otherwise
+   */
+  public static final int SIZE_MODE_VISUAL = 1;
+
+  /**
+   * the scrolling sibling with {@link ScrollViewBehavior} is laid out again below the bar
+   * whenever the bar changes
+   */
+  public static final int SCROLLING_LAYOUT_RELAYOUT = 0;
+  /**
+   * the scrolling sibling with {@link ScrollViewBehavior} is laid out once at the height it has
+   * below the collapsed bar, the bar changes only move it, it is laid out again only when its
+   * size changes or it requests a layout itself
+   */
+  public static final int SCROLLING_LAYOUT_OFFSET = 1;
+
   private static final int ACTION_NONE = 0;
   private static final int ACTION_EXPAND = 1;
   private static final int ACTION_COLLAPSE = 2;
 
   private static final float AUTO_EXPAND_PERCENT_THRESHOLD = 0.95f;
   private static final float AUTO_COLLAPSE_PERCENT_THRESHOLD = 0.05f;
+  // the min release velocity in px per second to settle in its direction wherever the bar is,
+  // a slower release settles by the thresholds above
+  private static final float SETTLE_MIN_VELOCITY = 1000f;
 
   private static final long AUTO_ANIM_DEFAULT_DURATION = 250L;
 
-  private static final int ANTI_SHAKE_THRESHOLD = 200;
+  private static final float NO_PENDING_PERCENT = -1f;
+
+  // the recent scroll deltas the scroll velocity is estimated from
+  private static final int SCROLL_SAMPLE_COUNT = 8;
+  private static final long SCROLL_VELOCITY_WINDOW = 100L;
+  // the min velocity in px per second in the other direction to reverse the scroll direction
+  private static final float DIRECTION_REVERSE_VELOCITY = 500f;
+  // the min distance in px moved back to reverse the scroll direction, about a touch slop
+  private static final int DIRECTION_REVERSE_DISTANCE = 24;
+
+  private static final float DEFAULT_TRANSLATION_THRESHOLD = 0.5f;
+  private static final float DEFAULT_SCALE_THRESHOLD = 0.001f;
+  private static final float DEFAULT_ALPHA_THRESHOLD = 1f / 255;
 
   private int initHeight;
+  private int visibleHeight;
+  private final Rect visibleClipBounds = new Rect();
   private float prePercent;
   private int consumedY;
-  private int preY;
+  private final ScrollDirectionTracker directionTracker = new ScrollDirectionTracker(
+      SCROLL_SAMPLE_COUNT, SCROLL_VELOCITY_WINDOW, DIRECTION_REVERSE_VELOCITY,
+      DIRECTION_REVERSE_DISTANCE);
 
   private AnimRunnable animRunnable = new AnimRunnable();
+  private FlingRunnable flingRunnable;
+  private TransitionRunnable transitionRunnable;
 
   private int currentAction = ACTION_NONE;
+  // the collapse percent to apply once the origin state is captured, set before the first layout
+  // or restored from a saved state
+  private float pendingPercent = NO_PENDING_PERCENT;
 
   private Drawable statusBarScrim;
-
-  private final Set<CollapseHandler> collapseHandlers = new HashSet<>();
+  // the top window inset the bar is drawn under, the status bar scrim covers it
+  private int statusBarInset;
+  // opt in to let a CoordinatorLayout fitting the system windows draw the scrim, the insets never
+  // reach the bar then
+  private boolean statusBarScrimOnParent;
+  private CoordinatorLayout statusBarScrimHost;
+  private Drawable hostStatusBarBackground;
+  // the status bar background set on the host, the host is only restored while it still has it
+  private Drawable hostStatusBarScrim;
+
+  private static final CollapseHandler[] NO_COLLAPSE_HANDLERS = new CollapseHandler[0];
+
+  // the registries are copy on write arrays, dispatch never allocates and never sees a
+  // registration made while dispatching
+  private CollapseHandler[] collapseHandlers = NO_COLLAPSE_HANDLERS;
+  private final SparseArray<CollapseHandler[]> idCollapseHandlers = new SparseArray<>();
+  private OnCollapseProgressListener[] progressListeners = new OnCollapseProgressListener[0];
+
+  private ChildTransitionPlan[] transitionPlans = new ChildTransitionPlan[0];
+  private ChildTransitionPlan[] activePlans = new ChildTransitionPlan[0];
+  private int activePlanCount;
+  private boolean transitionPlansDirty = true;
+  private boolean transitionPlansNeedLayout;
+
+  // the children frames captured in the expanded state, replayed while the bar isn't expanded
+  private boolean layoutSnapshotValid;
+  private boolean measuredByRelativeLayout = true;
+  // the min change of each ChildTransitionPlan op before it is pushed to the child
+  private final float[] transitionThresholds = new float[TransitionOps.MAX_OP_COUNT];
+
+  // set from android:clipChildren while the super constructor runs, so it has no initializer
+  private boolean childrenUnclipped;
+
+  // children with a collapsedScrim, in child order
+  private View[] scrimChildren = new View[0];
+  private int scrimChildCount;
+  private int scrimAlpha = -1;
+  private int statusBarScrimAlpha = -1;
 
   private int COLLAPSED_HEIGHT;
+  // clBarHeight, COLLAPSED_HEIGHT without the status bar inset of a bar fitting system windows
+  private final int barHeight;
 
   private final long AUTO_ANIM_DURATION;
 
+  private final int collapseStrategy;
+
+  private boolean coalesceScroll;
+
+  private final int useLayer;
+  private boolean childLayersPromoted;
+  private boolean nestedScrolling;
+
+  private final int sizeMode;
+  private final int timelineSteps;
+  private int scrollingLayout;
+  // a child LayoutParams was changed by the last transition
+  private boolean childLayoutChanged;
+
+  private static final String[] TRACE_SECTION_NAMES = {
+      "CollapseRelativeBar:transition",
+      "CollapseRelativeBar:handler",
+      "CollapseRelativeBar:measure",
+      "CollapseRelativeBar:layout",
+      "CollapseRelativeBar:draw",
+      "CollapseRelativeBar:anim",
+  };
+
+  private static volatile CollapseSpecProvider collapseSpecProvider;
+
+  private CollapseMetrics metricsListener;
+  // only measured while a metrics listener is set
+  private FrameMetrics frameMetrics;
+
   public CollapseRelativeBar(Context context) {
     this(context, null);
   }
@@ -95,46 +247,263 @@ public class CollapseRelativeBar extends RelativeLayout {
       actionBarHeight = TypedValue.complexToDimensionPixelSize(tv.data,
           context.getResources().getDisplayMetrics());
     }
-    COLLAPSED_HEIGHT = typedArray.getDimensionPixelSize(
+    barHeight = typedArray.getDimensionPixelSize(
         R.styleable.CollapseRelativeBar_clBarHeight, actionBarHeight);
+    COLLAPSED_HEIGHT = barHeight;
     statusBarScrim =
         typedArray.getDrawable(R.styleable.CollapseRelativeBar_clStatusBarScrim);
+    if (statusBarScrim != null) {
+      // mutate once, the alpha is changed on every frame
+      statusBarScrim = statusBarScrim.mutate();
+      statusBarScrim.setAlpha(0);
+      statusBarScrimAlpha = 0;
+    }
+    statusBarScrimOnParent =
+        typedArray.getBoolean(R.styleable.CollapseRelativeBar_clStatusBarScrimOnParent, false);
     AUTO_ANIM_DURATION =
         typedArray.getInt(R.styleable.CollapseRelativeBar_clAnimDuration,
             (int) AUTO_ANIM_DEFAULT_DURATION);
-
-    if (statusBarScrim != null) {
-      if (context instanceof Activity) {
-        SystemBarTintManager tintManager = new SystemBarTintManager((Activity) context);
-        tintManager.setStatusBarTintEnabled(true);
-        tintManager.setStatusBarTintDrawable(statusBarScrim);
+    collapseStrategy =
+        typedArray.getInt(R.styleable.CollapseRelativeBar_clCollapseStrategy,
+            COLLAPSE_STRATEGY_HEIGHT);
+    coalesceScroll =
+        typedArray.getBoolean(R.styleable.CollapseRelativeBar_clCoalesceScroll, false);
+    useLayer = typedArray.getInt(R.styleable.CollapseRelativeBar_clUseLayer, USE_LAYER_NONE);
+    sizeMode = typedArray.getInt(R.styleable.CollapseRelativeBar_clSizeMode, SIZE_MODE_LAYOUT);
+    timelineSteps = typedArray.getInt(R.styleable.CollapseRelativeBar_clTimelineSteps, 0);
+    scrollingLayout = typedArray.getInt(R.styleable.CollapseRelativeBar_clScrollingLayout,
+        SCROLLING_LAYOUT_RELAYOUT);
+
+    ViewCompat.setOnApplyWindowInsetsListener(this, new OnApplyWindowInsetsListener() {
+      @Override
+      public WindowInsetsCompat onApplyWindowInsets(View v, WindowInsetsCompat insets) {
+        return applyWindowInsets(insets);
       }
-    }
+    });
     typedArray.recycle();
+
+    setTransitionThresholds(DEFAULT_TRANSLATION_THRESHOLD, DEFAULT_SCALE_THRESHOLD,
+        DEFAULT_ALPHA_THRESHOLD);
+  }
+
+  /**
+   * set the min change of a child property before it is pushed to the child, smaller changes
+   * are skipped in the middle of collapsing, the exact value is always pushed when the bar is
+   * fully expanded or collapsed
+   *
+   * @param translation min translation change in px, default 0.5
+   * @param scale       min scale change, default 0.001
+   * @param alpha       min alpha change, default 1/255
+   */
+  public void setTransitionThresholds(float translation, float scale, float alpha) {
+    transitionThresholds[TransitionOps.OP_TRANSLATION_X] = translation;
+    transitionThresholds[TransitionOps.OP_TRANSLATION_Y] = translation;
+    transitionThresholds[TransitionOps.OP_SCALE_X] = scale;
+    transitionThresholds[TransitionOps.OP_SCALE_Y] = scale;
+    transitionThresholds[TransitionOps.OP_ALPHA] = alpha;
+    transitionPlansDirty = true;
   }
 
   /**
-   * isCollapsed, equals getHeight() == COLLAPSED_HEIGHT
+   * isCollapsed, equals getVisibleHeight() == COLLAPSED_HEIGHT
    *
    */
   public boolean isCollapsed() {
-    return getHeight() == COLLAPSED_HEIGHT;
+    return getVisibleHeight() == COLLAPSED_HEIGHT;
   }
 
   /**
-   * isExpanded, equals getHeight() == initHeight
+   * isExpanded, equals getVisibleHeight() == initHeight
    *
    */
   public boolean isExpanded() {
-    return getHeight() == initHeight;
+    return getVisibleHeight() == initHeight;
+  }
+
+  /**
+   * the height the bar currently shows, equals getHeight() unless the collapse strategy is
+   * {@link #COLLAPSE_STRATEGY_CLIP}
+   *
+   */
+  public int getVisibleHeight() {
+    if (collapseStrategy == COLLAPSE_STRATEGY_CLIP && initHeight > 0) {
+      return visibleHeight;
+    }
+    return getHeight();
+  }
+
+  /**
+   * get the collapse strategy
+   *
+   * @return {@link #COLLAPSE_STRATEGY_HEIGHT} or {@link #COLLAPSE_STRATEGY_CLIP}
+   */
+  public int getCollapseStrategy() {
+    return collapseStrategy;
+  }
+
+  /**
+   * set how the scrolling sibling with {@link ScrollViewBehavior} follows the bar
+   *
+   * @param scrollingLayout {@link #SCROLLING_LAYOUT_RELAYOUT} or {@link #SCROLLING_LAYOUT_OFFSET}
+   */
+  public void setScrollingLayout(int scrollingLayout) {
+    if (this.scrollingLayout != scrollingLayout) {
+      this.scrollingLayout = scrollingLayout;
+      requestLayout();
+    }
+  }
+
+  /**
+   * get how the scrolling sibling with {@link ScrollViewBehavior} follows the bar
+   *
+   * @return {@link #SCROLLING_LAYOUT_RELAYOUT} or {@link #SCROLLING_LAYOUT_OFFSET}
+   */
+  public int getScrollingLayout() {
+    return scrollingLayout;
+  }
+
+  /**
+   * coalesce the nested scroll deltas of a frame, the deltas are still consumed immediately, but
+   * child transitions, handler callbacks and the layout request run once per frame
+   *
+   * @param coalesceScroll enable or not
+   */
+  public void setCoalesceScrollEnabled(boolean coalesceScroll) {
+    if (!coalesceScroll) {
+      flushPendingTransition();
+    }
+    this.coalesceScroll = coalesceScroll;
+  }
+
+  /**
+   * set a listener receiving the time the bar spent in each frame, reported after the bar is
+   * drawn. The sections are also traced in systrace, whether a listener is set or not
+   *
+   * @param metricsListener the listener, null to stop measuring
+   */
+  public void setMetricsListener(CollapseMetrics metricsListener) {
+    this.metricsListener = metricsListener;
+    if (metricsListener == null) {
+      frameMetrics = null;
+    } else if (frameMetrics == null) {
+      frameMetrics = new FrameMetrics();
+    }
+  }
+
+  private long beginSection(int section) {
+    TraceCompat.beginSection(TRACE_SECTION_NAMES[section]);
+    return metricsNanos();
+  }
+
+  private void endSection(int section, long startNanos) {
+    addMetricsNanos(section, startNanos);
+    TraceCompat.endSection();
+  }
+
+  private long metricsNanos() {
+    return frameMetrics != null ? System.nanoTime() : 0;
+  }
+
+  private void addMetricsNanos(int section, long startNanos) {
+    if (frameMetrics != null) {
+      frameMetrics.sectionNanos[section] += System.nanoTime() - startNanos;
+    }
+  }
+
+  @Override
+  public void requestLayout() {
+    if (frameMetrics != null) {
+      frameMetrics.requestLayoutCount++;
+    }
+    super.requestLayout();
+  }
+
+  private int getVisibleBottom() {
+    return getTop() + getVisibleHeight();
   }
 
   @Override
   protected void onDetachedFromWindow() {
     super.onDetachedFromWindow();
+    animRunnable.stop();
+    if (flingRunnable != null) {
+      flingRunnable.stop();
+    }
+    flushPendingTransition();
+    updateStatusBarScrimHost(null);
+    if (initHeight > 0 && pendingPercent == NO_PENDING_PERCENT && !isExpanded()) {
+      // the origin state is captured again when reattached, it must be captured expanded, then
+      // the bar collapses back to where it was
+      pendingPercent = getCollapsePercent();
+      resetToExpanded();
+    }
     initHeight = 0;
   }
 
+  /**
+   * put the bar and its children back to the expanded geometry without a transition, the
+   * CollapseHandlers and OnCollapseProgressListeners don't hear about it
+   */
+  private void resetToExpanded() {
+    transitionHeightAndGetPercent(getVisibleHeight() - initHeight);
+    ensureTransitionPlans();
+    for (int i = 0; i < activePlanCount; i++) {
+      activePlans[i].apply(0f);
+    }
+    hideCulledChildrenFromAccessibility();
+    updateStatusBarScrim(0f);
+    if (collapseStrategy == COLLAPSE_STRATEGY_CLIP) {
+      updateVisibleClipBounds();
+    }
+    prePercent = 0f;
+    requestLayout();
+  }
+
+  @Override
+  protected Parcelable onSaveInstanceState() {
+    SavedState savedState = new SavedState(super.onSaveInstanceState());
+    if (initHeight <= 0) {
+      savedState.collapsePercent = pendingPercent != NO_PENDING_PERCENT ? pendingPercent : 0f;
+    } else if (animRunnable.isAnimating()) {
+      // the settle anim isn't resumed, restore where it would end
+      savedState.collapsePercent = animRunnable.targetHeight == initHeight ? 0f : 1f;
+    } else {
+      savedState.collapsePercent = getCollapsePercent();
+    }
+    savedState.currentAction = currentAction;
+    return savedState;
+  }
+
+  @Override
+  protected void onRestoreInstanceState(Parcelable state) {
+    if (!(state instanceof SavedState)) {
+      super.onRestoreInstanceState(state);
+      return;
+    }
+    SavedState savedState = (SavedState) state;
+    super.onRestoreInstanceState(savedState.getSuperState());
+    currentAction = savedState.currentAction;
+    if (initHeight > 0) {
+      setCollapsePercent(savedState.collapsePercent);
+    } else {
+      // applied with the origin state capture, before the first frame is drawn
+      pendingPercent = savedState.collapsePercent;
+    }
+  }
+
+  private float getCollapsePercent() {
+    return CollapseMath.getCollapsePercent(getVisibleHeight(), COLLAPSED_HEIGHT, initHeight);
+  }
+
+  private void setCollapsePercent(float percent) {
+    animRunnable.stop();
+    if (flingRunnable != null) {
+      flingRunnable.stop();
+    }
+    int height = initHeight - Math.round((initHeight - COLLAPSED_HEIGHT) * percent);
+    doTranslation(getVisibleHeight() - height);
+  }
+
   @Override
   protected void onAttachedToWindow() {
     super.onAttachedToWindow();
@@ -145,7 +514,17 @@ public class CollapseRelativeBar extends RelativeLayout {
         if (initHeight < COLLAPSED_HEIGHT) {
           throw new IllegalStateException("height can't < COLLAPSED_HEIGHT");
         }
+        if (visibleHeight <= 0 || visibleHeight > initHeight) {
+          visibleHeight = initHeight;
+        }
         updateChildOriginState();
+        if (pendingPercent != NO_PENDING_PERCENT) {
+          setCollapsePercent(pendingPercent);
+          pendingPercent = NO_PENDING_PERCENT;
+          if (isLayoutRequested()) {
+            skipStaleDraw();
+          }
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
           getViewTreeObserver().removeOnGlobalLayoutListener(this);
         } else {
@@ -155,6 +534,20 @@ public class CollapseRelativeBar extends RelativeLayout {
     });
   }
 
+  /**
+   * this frame was laid out before the pending state was applied, don't draw it, the next frame
+   * is laid out and drawn with the pending state
+   */
+  private void skipStaleDraw() {
+    getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+      @Override
+      public boolean onPreDraw() {
+        getViewTreeObserver().removeOnPreDrawListener(this);
+        return false;
+      }
+    });
+  }
+
   /**
    * run expand anim
    *
@@ -163,11 +556,10 @@ public class CollapseRelativeBar extends RelativeLayout {
   public void runAutoExpand(long duration) {
     animRunnable.stop();
 
-    int distance = initHeight - getHeight();
+    int distance = initHeight - getVisibleHeight();
     int maxDistance = initHeight - COLLAPSED_HEIGHT;
     long animDuration = (long) (duration * ((float) distance / maxDistance));
-    animRunnable.start(animDuration, distance, AnimationUtils.currentAnimationTimeMillis(),
-        AnimRunnable.EXPAND_ACTION);
+    animRunnable.start(initHeight, animDuration);
   }
 
   /**
@@ -178,251 +570,623 @@ public class CollapseRelativeBar extends RelativeLayout {
   public void runAutoCollapse(long duration) {
     animRunnable.stop();
 
-    int distance = getHeight() - COLLAPSED_HEIGHT;
+    int distance = getVisibleHeight() - COLLAPSED_HEIGHT;
     int maxDistance = initHeight - COLLAPSED_HEIGHT;
     long animDuration = (long) (duration * ((float) distance / maxDistance));
-    animRunnable.start(animDuration, distance, AnimationUtils.currentAnimationTimeMillis(),
-        AnimRunnable.COLLAPSE_ACTION);
+    animRunnable.start(COLLAPSED_HEIGHT, animDuration);
   }
 
-  private int onTranslation(int y) {
-    if (isShake(y)) {
-      preY = y;
-      return y;
+  /**
+   * expand or collapse the bar
+   *
+   * @param expanded true to expand, false to collapse
+   * @param animate  whether run the anim, the anim duration is clAnimDuration
+   */
+  public void setExpanded(boolean expanded, boolean animate) {
+    if (initHeight <= 0) {
+      // not laid out yet, apply after the origin state captured
+      pendingPercent = expanded ? 0f : 1f;
+      return;
     }
+    if (animate) {
+      if (expanded) {
+        runAutoExpand(AUTO_ANIM_DURATION);
+      } else {
+        runAutoCollapse(AUTO_ANIM_DURATION);
+      }
+    } else {
+      animRunnable.stop();
+      doTranslation(getVisibleHeight() - (expanded ? initHeight : COLLAPSED_HEIGHT));
+    }
+  }
+
+  /**
+   * set the interpolator of the auto expand or collapse anim, default is linear
+   *
+   * @param interpolator the interpolator, null means linear
+   */
+  public void setSettleInterpolator(Interpolator interpolator) {
+    animRunnable.setInterpolator(
+        interpolator != null ? interpolator : CollapseSpec.LINEAR_INTERPOLATOR);
+  }
 
+  private int onTranslation(int y) {
     if (animRunnable.isAnimating()) {
       animRunnable.stop();
     }
-
-    // + preY for anti shake
-    if (y + preY > 0) {
-      currentAction = ACTION_COLLAPSE;
-    } else if (y + preY < 0) {
-      currentAction = ACTION_EXPAND;
+    if (flingRunnable != null && flingRunnable.isAnimating()) {
+      flingRunnable.stop();
     }
 
-    preY = y;
+    // the direction only reverses on a fast, far enough or sustained reversal, a jittery drag
+    // keeps it, and so does the settle anim run when the nested scroll stops
+    switch (directionTracker.addDelta(y, currentAnimationTimeMillis())) {
+      case ScrollDirectionTracker.DIRECTION_POSITIVE:
+        currentAction = ACTION_COLLAPSE;
+        break;
+      case ScrollDirectionTracker.DIRECTION_NEGATIVE:
+        currentAction = ACTION_EXPAND;
+        break;
+    }
 
-    return doTranslation(y);
+    return coalesceScroll ? deferTranslation(y) : doTranslation(y);
   }
 
   private int doTranslation(int y) {
-    float percent = transitionHeightAndGetPercent(y);
-    transitionChild(percent);
-    requestLayout();
-    prePercent = percent;
+    cancelPendingTransition();
+    applyTransition(transitionHeightAndGetPercent(y));
     return consumedY;
   }
 
-  private boolean isShake(int y) {
-    return y * preY < 0 && Math.abs((Math.abs(y) - Math.abs(preY))) < ANTI_SHAKE_THRESHOLD;
+  /**
+   * consume the delta immediately, but only apply the transition once in the next frame
+   */
+  private int deferTranslation(int y) {
+    float percent = transitionHeightAndGetPercent(y);
+    if (transitionRunnable == null) {
+      transitionRunnable = new TransitionRunnable();
+    }
+    transitionRunnable.schedule(percent);
+    return consumedY;
   }
 
-  private void onStopNestedScroll() {
-    switch (currentAction) {
-      case ACTION_NONE:
-        break;
-      case ACTION_EXPAND:
-        if (prePercent < AUTO_EXPAND_PERCENT_THRESHOLD) {
-          runAutoExpand((long) (AUTO_ANIM_DURATION * (prePercent - 0)));
-        }
-        break;
-      case ACTION_COLLAPSE:
-        if (prePercent > AUTO_COLLAPSE_PERCENT_THRESHOLD) {
-          runAutoCollapse((long) (AUTO_ANIM_DURATION * (1 - prePercent)));
-        }
-        break;
+  private void cancelPendingTransition() {
+    if (transitionRunnable != null && transitionRunnable.isAnimating()) {
+      transitionRunnable.stop();
     }
   }
 
-  private float transitionHeightAndGetPercent(int y) {
-    ViewGroup.LayoutParams layoutParams = getLayoutParams();
-    layoutParams.height -= y;
-    if (layoutParams.height < COLLAPSED_HEIGHT) {
-      consumedY = y - (COLLAPSED_HEIGHT - layoutParams.height);
-      layoutParams.height = COLLAPSED_HEIGHT;
-    } else if (layoutParams.height < 0) {
-      consumedY = y - (0 - layoutParams.height);
-      layoutParams.height = 0;
-    } else if (layoutParams.height > initHeight) {
-      consumedY = y + (layoutParams.height - initHeight);
-      layoutParams.height = initHeight;
-    } else {
-      consumedY = y;
+  private void flushPendingTransition() {
+    if (transitionRunnable != null && transitionRunnable.isAnimating()) {
+      transitionRunnable.stop();
+      applyTransition(transitionRunnable.percent);
     }
+  }
 
-    return (float) (initHeight - getLayoutParams().height)
-        / (float) (initHeight - COLLAPSED_HEIGHT);
+  /**
+   * the time base of the scroll velocity and the frame steps, a test seam
+   */
+  long currentAnimationTimeMillis() {
+    return AnimationUtils.currentAnimationTimeMillis();
   }
 
-  private void transitionChild(float percent) {
-    int childCount = getChildCount();
-    if (childCount <= 0) {
-      return;
+  /**
+   * the scroller of the fling, a test seam
+   */
+  ScrollerCompat createFlingScroller() {
+    return ScrollerCompat.create(getContext());
+  }
+
+  /**
+   * run the pending frame steps of the coalesced transition, the settle anim and the fling, as
+   * their frame callbacks would in the frame at the time
+   *
+   * @param frameTime in {@link AnimationUtils#currentAnimationTimeMillis()} time base
+   */
+  void dispatchPendingFrame(long frameTime) {
+    if (transitionRunnable != null && transitionRunnable.isAnimating()) {
+      transitionRunnable.dispatchFrame(frameTime);
     }
-    for (int i = 0; i < childCount; i++) {
-      View child = getChildAt(i);
-      if (letListenerHandle(child, percent)) {
-        continue;
-      }
-      LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
-      float childPercent = layoutParams.interpolator.getInterpolation(percent);
-      float childScaleXPercent = layoutParams.scaleXInterpolator.getInterpolation(percent);
-      float childScaleYPercent = layoutParams.scaleYInterpolator.getInterpolation(percent);
+    if (animRunnable.isAnimating()) {
+      animRunnable.dispatchFrame(frameTime);
+    }
+    if (flingRunnable != null && flingRunnable.isAnimating()) {
+      flingRunnable.dispatchFrame(frameTime);
+    }
+  }
 
-      ChildOriginState childOriginState = getChildOriginState(child);
-      if (layoutParams.collapsedMarginBottom != LayoutParams.COLLAPSED_NO_TRANSLATION_Y) {
-        transitionChildYForMarginBottom(child, layoutParams.collapsedMarginBottom,
-            childPercent);
-      } else if (layoutParams.collapsedMarginTop != LayoutParams.COLLAPSED_NO_TRANSLATION_Y) {
-        transitionChildYForMarginTop(childOriginState, child, layoutParams.collapsedMarginTop,
-            layoutParams.collapsedScaleY, childPercent);
+  private void applyTransition(float percent) {
+    if (percent == prePercent && !transitionPlansDirty
+        && transitionPlans.length == getChildCount()) {
+      // pinned at the same state, nothing changed for the children and the bar
+      return;
+    }
+    long start = beginSection(FrameMetrics.SECTION_TRANSITION);
+    try {
+      transitionChild(percent);
+      hideCulledChildrenFromAccessibility();
+      notifyCollapseProgress(percent);
+      updateStatusBarScrim(percent);
+    } finally {
+      endSection(FrameMetrics.SECTION_TRANSITION, start);
+    }
+    if (collapseStrategy == COLLAPSE_STRATEGY_CLIP) {
+      updateVisibleClipBounds();
+      // the scrolling sibling only needs a real layout to fit its height once fully collapsed,
+      // an offset sibling already has that height
+      if (transitionPlansNeedLayout || childLayoutChanged
+          || (percent >= 1f && prePercent < 1f && scrollingLayout != SCROLLING_LAYOUT_OFFSET)) {
+        requestLayout();
       } else {
-        switch (layoutParams.collapsedMode) {
-          case LayoutParams.COLLAPSED_MODE_PIN:
-            transitionChildYForPin(childOriginState, child, childPercent);
-            break;
-          case LayoutParams.COLLAPSED_MODE_OUT:
-            transitionChildYForOut(childOriginState, child, layoutParams.collapsedScaleY,
-                childPercent);
-            break;
-          case LayoutParams.COLLAPSED_MODE_NONE:
-            break;
-        }
-      }
-      if (layoutParams.collapsedMarginRight != LayoutParams.COLLAPSED_NO_TRANSLATION_X) {
-        transitionChildXRight(childOriginState, child, layoutParams.collapsedMarginRight,
-            layoutParams.collapsedScaleX, childPercent);
-      } else if (layoutParams.collapsedMarginLeft != LayoutParams.COLLAPSED_NO_TRANSLATION_X) {
-        transitionChildXLeft(childOriginState, child, layoutParams.collapsedMarginLeft,
-            layoutParams.collapsedScaleX, childPercent);
+        dispatchVisibleHeightChanged();
       }
-      if (layoutParams.collapsedWidth >= 0) {
-        transitionChildWidth(childOriginState, child, layoutParams.collapsedWidth, childPercent);
-      }
-      if (layoutParams.collapsedHeight >= 0) {
-        transitionChildHeight(childOriginState, child, layoutParams.collapsedHeight, childPercent);
-      }
-      if (layoutParams.collapsedScaleX != LayoutParams.COLLAPSED_NO_SCALE) {
-        transitionChildScaleX(childOriginState, child, layoutParams.collapsedScaleX,
-            childScaleXPercent);
-      }
-      if (layoutParams.collapsedScaleY != LayoutParams.COLLAPSED_NO_SCALE) {
-        transitionChildScaleY(childOriginState, child, layoutParams.collapsedScaleY,
-            childScaleYPercent);
-      }
-      if (layoutParams.collapsedAlpha != LayoutParams.COLLAPSED_NO_ALPHA) {
-        transitionChildAlpha(childOriginState, child, layoutParams.collapsedAlpha, childPercent);
-      }
-      if (child instanceof TextView) {
-        if (layoutParams.collapsedTextColor != null) {
-          transitionChildTextColor(childOriginState, (TextView) child,
-              layoutParams.collapsedTextColor, childPercent);
-        }
-      }
-      notifyAfterTransition(child, percent);
+    } else {
+      requestLayout();
     }
+    prePercent = percent;
   }
 
-  private void transitionChildYForPin(ChildOriginState childOriginState, View child,
-                                      float percent) {
-    float targetMarginTop =
-        COLLAPSED_HEIGHT / 2 - childOriginState.height / 2 - getPaddingTop();
-    float totalYDistance = childOriginState.top - targetMarginTop;
-    ViewCompat.setTranslationY(child, -totalYDistance * percent);
+  /**
+   * the scrim is only redrawn when its alpha changes, a bar moving only its children by their
+   * properties isn't redrawn otherwise
+   */
+  private void updateStatusBarScrim(float percent) {
+    int alpha = (int) (255 * percent);
+    if (statusBarScrim == null || alpha == statusBarScrimAlpha) {
+      return;
+    }
+    statusBarScrim.setAlpha(alpha);
+    statusBarScrimAlpha = alpha;
+    if (statusBarScrimHost != null) {
+      // the host lays the bar out right below the status bar
+      statusBarScrimHost.invalidate(0, 0, statusBarScrimHost.getWidth(), getTop());
+    } else if (statusBarInset > 0) {
+      invalidate(0, 0, getWidth(), statusBarInset);
+    }
   }
 
-  private void transitionChildYForOut(ChildOriginState childOriginState, View child,
-                                      float targetScaleY,
-                                      float percent) {
-    float targetMarginTop =
-        -childOriginState.height - getScaleDelta(childOriginState.height, targetScaleY) / 2;
-    float totalYDistance = childOriginState.top - targetMarginTop;
-    ViewCompat.setTranslationY(child, -totalYDistance * percent);
+  private WindowInsetsCompat applyWindowInsets(WindowInsetsCompat insets) {
+    setStatusBarInset(insets.getSystemWindowInsetTop());
+    return ViewCompat.onApplyWindowInsets(this, insets);
   }
 
-  private void transitionChildXLeft(ChildOriginState childOriginState, View child,
-                                    int targetMarginLeft, float targetScaleX, float percent) {
-    int totalXDistance = (int) (childOriginState.left - getPaddingLeft() - targetMarginLeft
-        - getScaleDelta(childOriginState.width, targetScaleX) / 2);
-    ViewCompat.setTranslationX(child, -totalXDistance * percent);
+  private void setStatusBarInset(int statusBarInset) {
+    if (this.statusBarInset == statusBarInset) {
+      return;
+    }
+    this.statusBarInset = statusBarInset;
+    if (isFittingSystemWindows(this)) {
+      // the inset is padded into the bar, the collapsed bar keeps clBarHeight below it
+      setCollapsedHeight(barHeight + statusBarInset);
+    }
+    if (statusBarScrim != null) {
+      invalidate();
+    }
   }
 
-  private void transitionChildYForMarginTop(ChildOriginState childOriginState, View child,
-                                            int targetMarginTop,
-                                            float targetScaleY,
-                                            float percent) {
-    float totalYDistance = childOriginState.top - (targetMarginTop + getPaddingTop()
-        + getScaleDelta(childOriginState.height, targetScaleY) / 2);
-    ViewCompat.setTranslationY(child, -totalYDistance * percent);
+  private void setCollapsedHeight(int collapsedHeight) {
+    if (collapsedHeight == COLLAPSED_HEIGHT) {
+      return;
+    }
+    if (initHeight <= 0) {
+      COLLAPSED_HEIGHT = collapsedHeight;
+      return;
+    }
+    // the insets changed after the first layout, keep the collapse percent
+    float percent = getCollapsePercent();
+    COLLAPSED_HEIGHT = collapsedHeight;
+    transitionPlansDirty = true;
+    setCollapsePercent(percent);
   }
 
-  private void transitionChildXRight(ChildOriginState childOriginState, View child,
-                                     int targetMarginRight, float targetScaleX, float percent) {
-    int totalXDistance =
-        (int) (getWidth() - getPaddingRight() - targetMarginRight - childOriginState.right
-            - getScaleDelta(childOriginState.width, targetScaleX) / 2);
-    ViewCompat.setTranslationX(child, totalXDistance * percent);
+  /**
+   * ViewCompat only answers from jelly bean on, package-private so the tests can answer
+   */
+  boolean isFittingSystemWindows(View view) {
+    return ViewCompat.getFitsSystemWindows(view);
   }
 
-  private void transitionChildYForMarginBottom(View child,
-                                               int targetMarginBottom, float percent) {
-    ViewCompat.setTranslationY(child, -targetMarginBottom * percent);
+  /**
+   * let the parent CoordinatorLayout draw the status bar scrim as its status bar background, over
+   * the one it already has. Only used when the CoordinatorLayout fits system windows and the bar
+   * doesn't, the insets never reach the bar then
+   *
+   * @param statusBarScrimOnParent enable or not, default false
+   */
+  public void setStatusBarScrimOnParent(boolean statusBarScrimOnParent) {
+    if (this.statusBarScrimOnParent == statusBarScrimOnParent) {
+      return;
+    }
+    this.statusBarScrimOnParent = statusBarScrimOnParent;
+    if (statusBarScrimOnParent) {
+      // taken by the next layout of the CoordinatorLayout
+      requestLayout();
+    } else {
+      updateStatusBarScrimHost(null);
+      invalidate();
+    }
   }
 
-  private void transitionChildWidth(ChildOriginState childOriginState, View child,
-                                    int targetWidth, float percent) {
-    LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
-    layoutParams.width =
-        (int) getPointBetweenTwoValue(childOriginState.width, targetWidth, percent);
+  public boolean isStatusBarScrimOnParent() {
+    return statusBarScrimOnParent;
   }
 
-  private void transitionChildHeight(ChildOriginState childOriginState, View child,
-                                     int targetHeight, float percent) {
-    LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
-    layoutParams.height =
-        (int) getPointBetweenTwoValue(childOriginState.height, targetHeight, percent);
+  private void updateStatusBarScrimHost(CoordinatorLayout parent) {
+    CoordinatorLayout host = statusBarScrimOnParent && statusBarScrim != null && parent != null
+        && isFittingSystemWindows(parent) && !isFittingSystemWindows(this) ? parent : null;
+    if (host != null && host == statusBarScrimHost
+        && host.getStatusBarBackground() == hostStatusBarScrim) {
+      return;
+    }
+    if (statusBarScrimHost != null) {
+      // a background the app set in the meantime is left alone
+      if (statusBarScrimHost.getStatusBarBackground() == hostStatusBarScrim) {
+        statusBarScrimHost.setStatusBarBackground(hostStatusBarBackground);
+      }
+      hostStatusBarBackground = null;
+      hostStatusBarScrim = null;
+    }
+    statusBarScrimHost = host;
+    if (host != null) {
+      hostStatusBarBackground = host.getStatusBarBackground();
+      hostStatusBarScrim = hostStatusBarBackground == null ? statusBarScrim
+          : new LayerDrawable(new Drawable[]{hostStatusBarBackground, statusBarScrim});
+      host.setStatusBarBackground(hostStatusBarScrim);
+    }
   }
 
-  private void transitionChildScaleX(ChildOriginState childOriginState, View child,
-                                     float targetScaleX, float percent) {
-    ViewCompat.setScaleX(child,
-        getPointBetweenTwoValue(childOriginState.scaleX, targetScaleX, percent));
+  @Override
+  @SuppressWarnings("deprecation")
+  protected boolean fitSystemWindows(Rect insets) {
+    // below lollipop the insets are only dispatched here
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+      setStatusBarInset(insets.top);
+    }
+    return super.fitSystemWindows(insets);
   }
 
-  private void transitionChildScaleY(ChildOriginState childOriginState, View child,
-                                     float targetScaleY, float percent) {
-    ViewCompat.setScaleY(child,
-        getPointBetweenTwoValue(childOriginState.scaleY, targetScaleY, percent));
+  private boolean onPreFling(View target, float velocityY) {
+    flushPendingTransition();
+    if (velocityY > 0 ? isCollapsed()
+        : isExpanded() || ViewCompat.canScrollVertically(target, -1)) {
+      // nothing to fling for the bar, let the scrolling sibling fling itself
+      return false;
+    }
+    currentAction = velocityY > 0 ? ACTION_COLLAPSE : ACTION_EXPAND;
+    animRunnable.stop();
+    if (flingRunnable == null) {
+      flingRunnable = new FlingRunnable();
+    }
+    flingRunnable.start(target, (int) velocityY);
+    return true;
   }
 
-  private void transitionChildAlpha(ChildOriginState childOriginState, View child,
-                                    float targetAlpha, float percent) {
-    ViewCompat.setAlpha(child,
-        getPointBetweenTwoValue(childOriginState.alpha, targetAlpha, percent));
+  private void onStartNestedScroll() {
+    nestedScrolling = true;
+    directionTracker.reset();
+    promoteChildLayers();
   }
 
-  private void transitionChildTextColor(ChildOriginState childOriginState, TextView child,
-                                        int[] targetTextColor, float percent) {
-    child.setTextColor(Color.argb(
-        (int) getPointBetweenTwoValue(childOriginState.textColor[0], targetTextColor[0], percent),
-        (int) getPointBetweenTwoValue(childOriginState.textColor[1], targetTextColor[1], percent),
-        (int) getPointBetweenTwoValue(childOriginState.textColor[2], targetTextColor[2], percent),
-        (int) getPointBetweenTwoValue(childOriginState.textColor[3], targetTextColor[3], percent)));
-  }
+  private void onStopNestedScroll() {
+    nestedScrolling = false;
+    flushPendingTransition();
+    if (flingRunnable != null && flingRunnable.isAnimating()) {
+      // the fling will settle the bar when it ends
+      return;
+    }
+    float velocity = directionTracker.getVelocity(currentAnimationTimeMillis());
+    if (Math.abs(velocity) >= SETTLE_MIN_VELOCITY) {
+      settleWithVelocity(velocity);
+    } else {
+      settleByPercent();
+    }
+    releaseChildLayersIfIdle();
+  }
+
+  /**
+   * a slow release only settles once the bar left the edge it came from by a threshold
+   */
+  private void settleByPercent() {
+    switch (currentAction) {
+      case ACTION_NONE:
+        break;
+      case ACTION_EXPAND:
+        if (prePercent < AUTO_EXPAND_PERCENT_THRESHOLD) {
+          runAutoExpand((long) (AUTO_ANIM_DURATION * (prePercent - 0)));
+        }
+        break;
+      case ACTION_COLLAPSE:
+        if (prePercent > AUTO_COLLAPSE_PERCENT_THRESHOLD) {
+          runAutoCollapse((long) (AUTO_ANIM_DURATION * (1 - prePercent)));
+        }
+        break;
+    }
+  }
+
+  /**
+   * settle the way a fast release was heading, at its speed but never slower than the settle
+   * anim
+   */
+  private void settleWithVelocity(float velocity) {
+    currentAction = velocity > 0 ? ACTION_COLLAPSE : ACTION_EXPAND;
+    int targetHeight = velocity > 0 ? COLLAPSED_HEIGHT : initHeight;
+    int distance = Math.abs(getVisibleHeight() - targetHeight);
+    int maxDistance = initHeight - COLLAPSED_HEIGHT;
+    long duration = Math.min((long) (distance * 1000 / Math.abs(velocity)),
+        (long) (AUTO_ANIM_DURATION * ((float) distance / maxDistance)));
+    animRunnable.stop();
+    animRunnable.start(targetHeight, duration);
+  }
+
+  /**
+   * put the eligible children on a hardware layer, so they are not redrawn on every frame while
+   * only their translation, scale or alpha changes
+   */
+  private void promoteChildLayers() {
+    if (childLayersPromoted) {
+      return;
+    }
+    ensureTransitionPlans();
+    for (int i = 0; i < activePlanCount; i++) {
+      activePlans[i].promoteLayer(useLayer);
+    }
+    childLayersPromoted = true;
+  }
+
+  private void releaseChildLayers() {
+    if (!childLayersPromoted) {
+      return;
+    }
+    for (int i = 0; i < activePlanCount; i++) {
+      activePlans[i].releaseLayer();
+    }
+    childLayersPromoted = false;
+  }
+
+  private void releaseChildLayersIfIdle() {
+    if (!nestedScrolling && !animRunnable.isAnimating()
+        && (flingRunnable == null || !flingRunnable.isAnimating())) {
+      releaseChildLayers();
+    }
+  }
+
+  private float transitionHeightAndGetPercent(int y) {
+    ViewGroup.LayoutParams layoutParams = getLayoutParams();
+    boolean clip = collapseStrategy == COLLAPSE_STRATEGY_CLIP;
+    int height = clip ? visibleHeight : layoutParams.height;
+    height -= y;
+    int clampedHeight = CollapseMath.clampHeight(height, COLLAPSED_HEIGHT, initHeight);
+    // the part of the delta clamped away is left to the scrolling sibling
+    consumedY = y + (height - clampedHeight);
+    height = clampedHeight;
+    if (clip) {
+      visibleHeight = height;
+    } else {
+      layoutParams.height = height;
+    }
+
+    return CollapseMath.getCollapsePercent(height, COLLAPSED_HEIGHT, initHeight);
+  }
+
+  private void updateVisibleClipBounds() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      if (visibleHeight >= getHeight()) {
+        setClipBounds(null);
+      } else {
+        visibleClipBounds.set(0, 0, getWidth(), visibleHeight);
+        setClipBounds(visibleClipBounds);
+      }
+    } else {
+      invalidate();
+    }
+  }
+
+  private void dispatchVisibleHeightChanged() {
+    if (getParent() instanceof CoordinatorLayout) {
+      ((CoordinatorLayout) getParent()).dispatchDependentViewsChanged(this);
+    }
+  }
 
-  private float getPointBetweenTwoValue(float point1, float point2, float percent) {
-    float distance = Math.abs(point1 - point2);
-    if (point1 < point2) {
-      return point1 + distance * percent;
+  @Override
+  public void draw(Canvas canvas) {
+    if (collapseStrategy == COLLAPSE_STRATEGY_CLIP
+        && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2
+        && initHeight > 0 && visibleHeight < getHeight()) {
+      int saveCount = canvas.save();
+      canvas.clipRect(0, 0, getWidth(), visibleHeight);
+      super.draw(canvas);
+      canvas.restoreToCount(saveCount);
     } else {
-      return point1 - distance * percent;
+      super.draw(canvas);
+    }
+  }
+
+  private void transitionChild(float percent) {
+    int childCount = getChildCount();
+    if (childCount <= 0) {
+      return;
+    }
+    ensureTransitionPlans();
+    childLayoutChanged = false;
+    CollapseHandler[] handlers = collapseHandlers;
+    if (handlers.length == 0) {
+      // no bar wide handler, only run the children which really have something to transition
+      for (int i = 0; i < activePlanCount; i++) {
+        ChildTransitionPlan plan = activePlans[i];
+        transitionChild(plan.child, plan, handlers, percent);
+      }
+      return;
+    }
+    for (int i = 0; i < childCount; i++) {
+      transitionChild(getChildAt(i), transitionPlans[i], handlers, percent);
+    }
+  }
+
+  private void transitionChild(View child, ChildTransitionPlan plan,
+                               CollapseHandler[] handlers, float percent) {
+    CollapseHandler[] childHandlers = plan != null ? plan.handlers : NO_COLLAPSE_HANDLERS;
+    boolean hasHandlers = childHandlers.length > 0 || handlers.length > 0;
+    long start = hasHandlers ? metricsNanos() : 0;
+    boolean handled = letListenerHandle(childHandlers, child, percent)
+        || letListenerHandle(handlers, child, percent);
+    if (hasHandlers) {
+      addMetricsNanos(FrameMetrics.SECTION_HANDLER, start);
+    }
+    if (handled) {
+      return;
+    }
+    if (plan != null) {
+      childLayoutChanged |= plan.apply(percent);
+    }
+    if (hasHandlers) {
+      start = metricsNanos();
+      notifyAfterTransition(childHandlers, child, percent);
+      notifyAfterTransition(handlers, child, percent);
+      addMetricsNanos(FrameMetrics.SECTION_HANDLER, start);
+    }
+  }
+
+  private void ensureTransitionPlans() {
+    if (transitionPlansDirty || transitionPlans.length != getChildCount()) {
+      buildTransitionPlans();
+    }
+  }
+
+  /**
+   * resolve every child's LayoutParams and ChildOriginState into a compact list of property ops,
+   * so the per frame work doesn't need to re-decide what to transition
+   */
+  private void buildTransitionPlans() {
+    boolean layersPromoted = childLayersPromoted;
+    releaseChildLayers();
+    for (int i = 0; i < activePlanCount; i++) {
+      setAccessibilityHidden(activePlans[i], false);
+    }
+    int childCount = getChildCount();
+    if (transitionPlans.length != childCount) {
+      transitionPlans = new ChildTransitionPlan[childCount];
+      activePlans = new ChildTransitionPlan[childCount];
+      scrimChildren = new View[childCount];
+    }
+    activePlanCount = 0;
+    scrimChildCount = 0;
+    scrimAlpha = -1;
+    transitionPlansNeedLayout = false;
+    for (int i = 0; i < childCount; i++) {
+      View child = getChildAt(i);
+      if (child.getLayoutParams() instanceof LayoutParams
+          && ((LayoutParams) child.getLayoutParams()).collapsedScrim != null) {
+        scrimChildren[scrimChildCount++] = child;
+      }
+      ChildTransitionPlan plan = buildTransitionPlan(child);
+      transitionPlans[i] = plan;
+      if (plan != null) {
+        activePlans[activePlanCount++] = plan;
+        transitionPlansNeedLayout |= plan.changesLayout();
+      }
     }
+    transitionPlansDirty = false;
+    if (layersPromoted) {
+      promoteChildLayers();
+    }
+  }
+
+  private ChildTransitionPlan buildTransitionPlan(View child) {
+    CollapseHandler[] childHandlers = getChildCollapseHandlers(child);
+    if (!(child.getLayoutParams() instanceof LayoutParams)) {
+      if (childHandlers.length == 0) {
+        return null;
+      }
+      ChildTransitionPlan plan = new ChildTransitionPlan(child, null, transitionThresholds);
+      plan.handlers = childHandlers;
+      return plan;
+    }
+    LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
+    CollapseSpec spec = layoutParams.spec;
+    ChildOriginState childOriginState = getChildOriginState(child);
+    ChildTransitionPlan plan =
+        new ChildTransitionPlan(child, layoutParams, transitionThresholds);
+    plan.handlers = childHandlers;
+
+    // the text size is scaled while collapsing, the translations target the scaled size
+    boolean hasTextSize = child instanceof TextView
+        && spec.collapsedTextSize != LayoutParams.COLLAPSED_TEXT_SIZE_NO_CHANGE
+        && childOriginState.textSize > 0;
+    float textScale = hasTextSize ? spec.collapsedTextSize / childOriginState.textSize : 1f;
+    float collapsedScaleX = spec.collapsedScaleX * textScale;
+    float collapsedScaleY = spec.collapsedScaleY * textScale;
+
+    if (spec.collapsedMarginBottom != LayoutParams.COLLAPSED_NO_TRANSLATION_Y) {
+      plan.addOp(TransitionOps.OP_TRANSLATION_Y, 0, -spec.collapsedMarginBottom);
+    } else if (spec.collapsedMarginTop != LayoutParams.COLLAPSED_NO_TRANSLATION_Y) {
+      plan.addOp(TransitionOps.OP_TRANSLATION_Y, 0, CollapseMath.getMarginTopTranslationY(
+          childOriginState.top, childOriginState.height, collapsedScaleY,
+          spec.collapsedMarginTop, getPaddingTop()));
+    } else if (spec.collapsedMode != LayoutParams.COLLAPSED_MODE_NONE) {
+      plan.addOp(TransitionOps.OP_TRANSLATION_Y, 0, CollapseMath.getModeTranslationY(
+          spec.collapsedMode, childOriginState.top, childOriginState.height,
+          collapsedScaleY, COLLAPSED_HEIGHT, getPaddingTop()));
+    }
+    if (spec.collapsedMarginRight != LayoutParams.COLLAPSED_NO_TRANSLATION_X) {
+      plan.addOp(TransitionOps.OP_TRANSLATION_X, 0, CollapseMath.getMarginRightTranslationX(
+          childOriginState.right, childOriginState.width, collapsedScaleX,
+          spec.collapsedMarginRight, getWidth(), getPaddingRight()));
+    } else if (spec.collapsedMarginLeft != LayoutParams.COLLAPSED_NO_TRANSLATION_X) {
+      plan.addOp(TransitionOps.OP_TRANSLATION_X, 0, CollapseMath.getMarginLeftTranslationX(
+          childOriginState.left, childOriginState.width, collapsedScaleX,
+          spec.collapsedMarginLeft, getPaddingLeft()));
+    }
+    if (spec.collapsedWidth >= 0) {
+      plan.addOp(TransitionOps.OP_WIDTH, childOriginState.width,
+          spec.collapsedWidth);
+    }
+    if (spec.collapsedHeight >= 0) {
+      plan.addOp(TransitionOps.OP_HEIGHT, childOriginState.height,
+          spec.collapsedHeight);
+    }
+    if (isVisualSize(spec)) {
+      plan.setVisualSize(childOriginState);
+    }
+    if (spec.collapsedScaleX != LayoutParams.COLLAPSED_NO_SCALE || hasTextSize) {
+      plan.addOp(TransitionOps.OP_SCALE_X, childOriginState.scaleX,
+          (spec.collapsedScaleX != LayoutParams.COLLAPSED_NO_SCALE
+              ? spec.collapsedScaleX : childOriginState.scaleX) * textScale);
+    }
+    if (spec.collapsedScaleY != LayoutParams.COLLAPSED_NO_SCALE || hasTextSize) {
+      plan.addOp(TransitionOps.OP_SCALE_Y, childOriginState.scaleY,
+          (spec.collapsedScaleY != LayoutParams.COLLAPSED_NO_SCALE
+              ? spec.collapsedScaleY : childOriginState.scaleY) * textScale);
+    }
+    if (hasTextSize && textScale != 1f) {
+      plan.setTextSize(childOriginState.textSize, spec.collapsedTextSize);
+    }
+    if (spec.collapsedAlpha != LayoutParams.COLLAPSED_NO_ALPHA) {
+      plan.addOp(TransitionOps.OP_ALPHA, childOriginState.alpha,
+          spec.collapsedAlpha);
+    }
+    if (child instanceof TextView
+        && spec.collapsedTextColor != LayoutParams.COLLAPSED_TEXT_COLOR_NO_CHANGE) {
+      plan.setTextColor(childOriginState.textColor, spec.collapsedTextColor);
+    }
+    if (plan.isEmpty()) {
+      return null;
+    }
+    plan.resolveTimelines(spec.timelineSteps != LayoutParams.TIMELINE_STEPS_INHERIT
+        ? spec.timelineSteps : timelineSteps);
+    return plan;
+  }
+
+  private boolean isVisualSize(CollapseSpec spec) {
+    int childSizeMode = spec.sizeMode != LayoutParams.SIZE_MODE_INHERIT
+        ? spec.sizeMode : sizeMode;
+    return childSizeMode == SIZE_MODE_VISUAL && canClipChildren();
   }
 
-  private float getScaleDelta(float originValue, float scale) {
-    return originValue * scale - originValue;
+  /**
+   * View.setClipBounds is api 18, package-private so the tests can answer
+   */
+  boolean canClipChildren() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
   }
 
   @Override
@@ -441,35 +1205,64 @@ public class CollapseRelativeBar extends RelativeLayout {
   }
 
   private void updateChildOriginState() {
+    boolean changed = false;
     for (int i = 0, z = getChildCount(); i < z; i++) {
       View child = getChildAt(i);
       ChildOriginState childOriginState = (ChildOriginState) child.getTag(R.id.collapse_layout_item_origin_state);
       if (childOriginState == null) {
         child.setTag(R.id.collapse_layout_item_origin_state, new ChildOriginState(child));
+        changed = true;
       } else {
-        childOriginState.update(child);
+        changed |= childOriginState.update(child);
       }
     }
+    layoutSnapshotValid = true;
+    // the plans are resolved from the origins, a relayout which moved nothing keeps them
+    if (changed) {
+      transitionPlansDirty = true;
+    }
+    ensureTransitionPlans();
   }
 
-  private boolean resetChildBorder() {
-    for (int i = 0, z = getChildCount(); i < z; i++) {
-      View child = getChildAt(i);
-      ChildOriginState childOriginState = getChildOriginState(child);
-      if (!childOriginState.canResetBorder) {
-        return false;
-      }
-      RelativeLayout.LayoutParams layoutParams = (RelativeLayout.LayoutParams) child.getLayoutParams();
-      try {
-        childOriginState.mLeft.setInt(layoutParams, childOriginState.left);
-        childOriginState.mTop.setInt(layoutParams, childOriginState.top);
-        childOriginState.mRight.setInt(layoutParams, childOriginState.right);
-        childOriginState.mBottom.setInt(layoutParams, childOriginState.bottom);
-      } catch (IllegalAccessException e) {
-        return false;
-      }
+  @Override
+  public void onViewAdded(View child) {
+    super.onViewAdded(child);
+    transitionPlansDirty = true;
+    layoutSnapshotValid = false;
+  }
+
+  @Override
+  public void onViewRemoved(View child) {
+    super.onViewRemoved(child);
+    transitionPlansDirty = true;
+    layoutSnapshotValid = false;
+  }
+
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    if (w != oldw) {
+      layoutSnapshotValid = false;
     }
-    return true;
+  }
+
+  /**
+   * set the collapsed state of a child
+   *
+   * @param child the child
+   * @param spec  the spec, can be shared by many children and bars
+   */
+  public void setCollapseSpec(View child, CollapseSpec spec) {
+    if (!(child.getLayoutParams() instanceof LayoutParams)) {
+      throw new IllegalArgumentException("child isn't laid out by CollapseRelativeBar");
+    }
+    ((LayoutParams) child.getLayoutParams()).setCollapseSpec(spec);
+    transitionPlansDirty = true;
+    if (initHeight > 0) {
+      // apply the new spec at the current collapse percent
+      transitionChild(prePercent);
+    }
+    requestLayout();
   }
 
   /**
@@ -478,7 +1271,7 @@ public class CollapseRelativeBar extends RelativeLayout {
    * @param collapseHandler a handler to handle child collapse anim
    */
   public void addCollapseHandler(CollapseHandler collapseHandler) {
-    collapseHandlers.add(collapseHandler);
+    collapseHandlers = addToArray(collapseHandlers, collapseHandler);
   }
 
   /**
@@ -487,321 +1280,1971 @@ public class CollapseRelativeBar extends RelativeLayout {
    * @param collapseHandler a handler to handle child collapse anim
    */
   public void removeCollapseHandler(CollapseHandler collapseHandler) {
-    collapseHandlers.remove(collapseHandler);
+    collapseHandlers = removeFromArray(collapseHandlers, collapseHandler);
   }
 
-  private boolean letListenerHandle(View child, float percent) {
-    if (collapseHandlers.isEmpty()) {
-      return false;
+  /**
+   * add a CollapseHandler only called for the given child
+   *
+   * @param child           the child to handle
+   * @param collapseHandler a handler to handle the child collapse anim
+   */
+  public void addCollapseHandler(View child, CollapseHandler collapseHandler) {
+    CollapseHandler[] handlers =
+        (CollapseHandler[]) child.getTag(R.id.collapse_layout_item_handlers);
+    child.setTag(R.id.collapse_layout_item_handlers,
+        addToArray(handlers != null ? handlers : NO_COLLAPSE_HANDLERS, collapseHandler));
+    transitionPlansDirty = true;
+  }
+
+  /**
+   * remove a CollapseHandler added by {@link #addCollapseHandler(View, CollapseHandler)}
+   *
+   * @param child           the child handled
+   * @param collapseHandler a handler to handle the child collapse anim
+   */
+  public void removeCollapseHandler(View child, CollapseHandler collapseHandler) {
+    CollapseHandler[] handlers =
+        (CollapseHandler[]) child.getTag(R.id.collapse_layout_item_handlers);
+    if (handlers != null) {
+      child.setTag(R.id.collapse_layout_item_handlers,
+          removeFromArray(handlers, collapseHandler));
+      transitionPlansDirty = true;
+    }
+  }
+
+  /**
+   * add a CollapseHandler only called for the child with the given id
+   *
+   * @param viewId          the id of the child to handle
+   * @param collapseHandler a handler to handle the child collapse anim
+   */
+  public void addCollapseHandler(int viewId, CollapseHandler collapseHandler) {
+    CollapseHandler[] handlers = idCollapseHandlers.get(viewId);
+    idCollapseHandlers.put(viewId,
+        addToArray(handlers != null ? handlers : NO_COLLAPSE_HANDLERS, collapseHandler));
+    transitionPlansDirty = true;
+  }
+
+  /**
+   * remove a CollapseHandler added by {@link #addCollapseHandler(int, CollapseHandler)}
+   *
+   * @param viewId          the id of the child handled
+   * @param collapseHandler a handler to handle the child collapse anim
+   */
+  public void removeCollapseHandler(int viewId, CollapseHandler collapseHandler) {
+    CollapseHandler[] handlers = idCollapseHandlers.get(viewId);
+    if (handlers != null) {
+      idCollapseHandlers.put(viewId, removeFromArray(handlers, collapseHandler));
+      transitionPlansDirty = true;
+    }
+  }
+
+  /**
+   * add OnCollapseProgressListener, called once per frame
+   *
+   * @param listener the listener of the bar collapse progress
+   */
+  public void addOnCollapseProgressListener(OnCollapseProgressListener listener) {
+    progressListeners = addToArray(progressListeners, listener);
+  }
+
+  /**
+   * remove OnCollapseProgressListener
+   *
+   * @param listener the listener of the bar collapse progress
+   */
+  public void removeOnCollapseProgressListener(OnCollapseProgressListener listener) {
+    progressListeners = removeFromArray(progressListeners, listener);
+  }
+
+  private CollapseHandler[] getChildCollapseHandlers(View child) {
+    CollapseHandler[] viewHandlers =
+        (CollapseHandler[]) child.getTag(R.id.collapse_layout_item_handlers);
+    CollapseHandler[] idHandlers =
+        child.getId() != View.NO_ID ? idCollapseHandlers.get(child.getId()) : null;
+    if (viewHandlers == null || viewHandlers.length == 0) {
+      return idHandlers != null ? idHandlers : NO_COLLAPSE_HANDLERS;
+    }
+    if (idHandlers == null || idHandlers.length == 0) {
+      return viewHandlers;
     }
-    for (CollapseHandler observer : collapseHandlers) {
-      if (observer.onCollapseTransition(this, child, percent)) {
+    CollapseHandler[] handlers =
+        Arrays.copyOf(viewHandlers, viewHandlers.length + idHandlers.length);
+    System.arraycopy(idHandlers, 0, handlers, viewHandlers.length, idHandlers.length);
+    return handlers;
+  }
+
+  private boolean letListenerHandle(CollapseHandler[] handlers, View child, float percent) {
+    for (int i = 0; i < handlers.length; i++) {
+      if (handlers[i].onCollapseTransition(this, child, percent)) {
         return true;
       }
     }
     return false;
   }
 
-  private void notifyAfterTransition(View child, float percent) {
-    if (collapseHandlers.isEmpty()) {
+  private void notifyAfterTransition(CollapseHandler[] handlers, View child, float percent) {
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i].afterCollapseTransition(this, child, percent);
+    }
+  }
+
+  private void notifyCollapseProgress(float percent) {
+    OnCollapseProgressListener[] listeners = progressListeners;
+    int barHeight = getVisibleHeight();
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].onCollapseProgress(percent, barHeight);
+    }
+  }
+
+  private static <T> T[] addToArray(T[] array, T item) {
+    for (T t : array) {
+      if (t == item) {
+        return array;
+      }
+    }
+    T[] newArray = Arrays.copyOf(array, array.length + 1);
+    newArray[array.length] = item;
+    return newArray;
+  }
+
+  private static <T> T[] removeFromArray(T[] array, T item) {
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] == item) {
+        T[] newArray = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, i + 1, newArray, i, array.length - i - 1);
+        return newArray;
+      }
+    }
+    return array;
+  }
+
+  @Override
+  protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    long start = beginSection(FrameMetrics.SECTION_MEASURE);
+    try {
+      measureBar(widthMeasureSpec, heightMeasureSpec);
+    } finally {
+      endSection(FrameMetrics.SECTION_MEASURE, start);
+    }
+  }
+
+  private void measureBar(int widthMeasureSpec, int heightMeasureSpec) {
+    int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+    boolean willBeExpanded = collapseStrategy == COLLAPSE_STRATEGY_CLIP
+        ? isExpanded() : heightSize == initHeight;
+    // relativeLayout only measure child when expanded, otherwise measure from the snapshot
+    measuredByRelativeLayout = willBeExpanded || !layoutSnapshotValid || initHeight <= 0
+        || MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.EXACTLY
+        || MeasureSpec.getMode(heightMeasureSpec) != MeasureSpec.EXACTLY;
+    if (measuredByRelativeLayout) {
+      super.onMeasure(widthMeasureSpec, heightMeasureSpec);
       return;
     }
-    for (CollapseHandler observer : collapseHandlers) {
-      observer.afterCollapseTransition(this, child, percent);
+    for (int i = 0, z = getChildCount(); i < z; i++) {
+      View child = getChildAt(i);
+      if (child.getVisibility() == GONE) {
+        continue;
+      }
+      ChildOriginState childOriginState = getChildOriginState(child);
+      ViewGroup.LayoutParams layoutParams = child.getLayoutParams();
+      // clWidth and clHeight children get their transitioned size, the others keep the snapshot
+      int width = layoutParams.width >= 0 ? layoutParams.width : childOriginState.width;
+      int height = layoutParams.height >= 0 ? layoutParams.height : childOriginState.height;
+      child.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+          MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
     }
+    setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), heightSize);
   }
 
   @Override
   protected void onLayout(boolean changed, int l, int t, int r, int b) {
-    // relativeLayout only layout child when expanded
-    if (isExpanded() || !ViewCompat.isLaidOut(this)) {
-      super.onLayout(changed, l, t, r, b);
-      updateChildOriginState();
-    } else if (resetChildBorder()) {
+    long start = beginSection(FrameMetrics.SECTION_LAYOUT);
+    try {
+      layoutBar(changed, l, t, r, b);
+    } finally {
+      endSection(FrameMetrics.SECTION_LAYOUT, start);
+    }
+  }
+
+  private void layoutBar(boolean changed, int l, int t, int r, int b) {
+    if (measuredByRelativeLayout) {
       super.onLayout(changed, l, t, r, b);
+      // relativeLayout only layout child when expanded, snapshot the frames of this layout
+      if (isExpanded() || !ViewCompat.isLaidOut(this)) {
+        updateChildOriginState();
+      } else {
+        ensureTransitionPlans();
+      }
+      return;
+    }
+    // replay the snapshot, skip the dependency sort and measure passes of RelativeLayout
+    for (int i = 0, z = getChildCount(); i < z; i++) {
+      View child = getChildAt(i);
+      if (child.getVisibility() == GONE) {
+        continue;
+      }
+      ChildOriginState childOriginState = getChildOriginState(child);
+      child.layout(childOriginState.left, childOriginState.top,
+          childOriginState.left + child.getMeasuredWidth(),
+          childOriginState.top + child.getMeasuredHeight());
+    }
+    ensureTransitionPlans();
+  }
+
+  @Override
+  protected void dispatchDraw(Canvas canvas) {
+    long start = beginSection(FrameMetrics.SECTION_DRAW);
+    try {
+      drawBar(canvas);
+    } finally {
+      endSection(FrameMetrics.SECTION_DRAW, start);
+    }
+    if (frameMetrics != null) {
+      // drawing is the last step of a frame
+      metricsListener.onFrameMetrics(this, frameMetrics);
+      frameMetrics.reset();
+    }
+  }
+
+  private void drawBar(Canvas canvas) {
+    // update the scrim drawables once per frame, not once per child draw
+    int alpha = (int) (255 * prePercent);
+    // dirty plans are rebuilt by the next layout or transition, never while drawing
+    if (scrimChildCount > 0 && alpha != scrimAlpha) {
+      for (int i = 0; i < scrimChildCount; i++) {
+        ((LayoutParams) scrimChildren[i].getLayoutParams()).collapsedScrim.setAlpha(alpha);
+      }
+      scrimAlpha = alpha;
     }
+    super.dispatchDraw(canvas);
+    // over the children, like the status bar itself
+    if (statusBarScrimAlpha > 0 && statusBarInset > 0 && statusBarScrimHost == null) {
+      statusBarScrim.setBounds(0, 0, getWidth(), statusBarInset);
+      statusBarScrim.draw(canvas);
+    }
+  }
+
+  @Override
+  public void setClipChildren(boolean clipChildren) {
+    super.setClipChildren(clipChildren);
+    childrenUnclipped = !clipChildren;
+  }
+
+  /**
+   * whether the child draws nothing now, it is fully transparent, or transformed fully out of
+   * the visible bar which clips it
+   */
+  private boolean isChildCulled(View child) {
+    if (child.getAlpha() <= 0f) {
+      return true;
+    }
+    if (childrenUnclipped || child.getRotation() != 0f
+        || child.getRotationX() != 0f || child.getRotationY() != 0f) {
+      return false;
+    }
+    float scaleX = child.getScaleX();
+    float left = CollapseMath.getTransformedStart(child.getLeft(),
+        child.getTranslationX(), child.getPivotX(), scaleX);
+    if (CollapseMath.isOutside(left, child.getWidth() * scaleX, getWidth())) {
+      return true;
+    }
+    float scaleY = child.getScaleY();
+    float top = CollapseMath.getTransformedStart(child.getTop(),
+        child.getTranslationY(), child.getPivotY(), scaleY);
+    return CollapseMath.isOutside(top, child.getHeight() * scaleY, getVisibleHeight());
+  }
+
+  /**
+   * the transitioned children culled from drawing are hidden from accessibility too, their
+   * visibility stays for the layout
+   */
+  private void hideCulledChildrenFromAccessibility() {
+    for (int i = 0; i < activePlanCount; i++) {
+      ChildTransitionPlan plan = activePlans[i];
+      setAccessibilityHidden(plan, plan.child.getVisibility() == VISIBLE
+          && isChildCulled(plan.child));
+    }
+  }
+
+  private void setAccessibilityHidden(ChildTransitionPlan plan, boolean hidden) {
+    if (hidden == plan.accessibilityHidden) {
+      return;
+    }
+    if (hidden) {
+      plan.importantForAccessibility = getImportantForAccessibility(plan.child);
+      setImportantForAccessibility(plan.child,
+          ViewCompat.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS);
+    } else {
+      setImportantForAccessibility(plan.child, plan.importantForAccessibility);
+    }
+    plan.accessibilityHidden = hidden;
+  }
+
+  /**
+   * ViewCompat only answers from jelly bean on, package-private so the tests can answer
+   */
+  int getImportantForAccessibility(View child) {
+    return ViewCompat.getImportantForAccessibility(child);
+  }
+
+  void setImportantForAccessibility(View child, int mode) {
+    ViewCompat.setImportantForAccessibility(child, mode);
   }
 
   @Override
   protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
-    // first drawing the child...
-    boolean bool = super.drawChild(canvas, child, drawingTime);
+    // first drawing the child, unless it draws nothing...
+    boolean bool = !isChildCulled(child) && drawChildView(canvas, child, drawingTime);
+
+    // then draw its scrim right above it, so the following children stay on top of the scrim
+    if (scrimAlpha > 0) {
+      for (int i = 0; i < scrimChildCount; i++) {
+        if (scrimChildren[i] == child) {
+          drawScrim(canvas, child);
+          break;
+        }
+      }
+    }
+    return bool;
+  }
+
+  /**
+   * the mockable android.jar draws nothing, package-private so the tests can see the children
+   * drawn
+   */
+  boolean drawChildView(Canvas canvas, View child, long drawingTime) {
+    return super.drawChild(canvas, child, drawingTime);
+  }
+
+  private void drawScrim(Canvas canvas, View child) {
+    int left = (int) (child.getLeft() + child.getTranslationX());
+    int top = (int) (child.getTop() + child.getTranslationY());
+    int right = (int) (child.getRight() + child.getTranslationX());
+    int bottom = (int) (child.getBottom() + child.getTranslationY());
+    // the bar is already clipped to its visible height, skip the scrims fully outside of it
+    if (bottom <= 0 || top >= getVisibleHeight() || left >= right) {
+      return;
+    }
+    Drawable scrim = ((LayoutParams) child.getLayoutParams()).collapsedScrim;
+    scrim.setBounds(left, top, right, bottom);
+    scrim.draw(canvas);
+  }
+
+  public static class LayoutParams extends RelativeLayout.LayoutParams {
+    public static final int COLLAPSED_NO_SCALE = 1;
+    public static final int COLLAPSED_NO_TRANSLATION_X = -99887766;
+    public static final int COLLAPSED_NO_TRANSLATION_Y = -99887765;
+    public static final float COLLAPSED_NO_ALPHA = -1;
+    private static final int COLLAPSED_TEXT_COLOR_NO_CHANGE = 938271202;
+    private static final float COLLAPSED_TEXT_SIZE_NO_CHANGE = -1;
+
+    public static final int COLLAPSED_MODE_PIN = CollapseMath.MODE_PIN;
+    public static final int COLLAPSED_MODE_OUT = CollapseMath.MODE_OUT;
+    public static final int COLLAPSED_MODE_NONE = CollapseMath.MODE_NONE;
+
+    private static final int USE_LAYER_INHERIT = -1;
+    private static final int SIZE_MODE_INHERIT = -1;
+    private static final int TIMELINE_STEPS_INHERIT = -1;
+
+    private CollapseSpec spec = CollapseSpec.DEFAULT;
+
+    // not a part of the spec, its alpha is changed by the bar it is drawn in
+    private Drawable collapsedScrim = null;
+
+    public LayoutParams(Context c, AttributeSet attrs) {
+      super(c, attrs);
+      CollapseSpec compiledSpec = getCompiledSpec(c, attrs);
+      if (compiledSpec != null) {
+        spec = CollapseSpec.intern(compiledSpec);
+        return;
+      }
+      TypedArray typedArray =
+          c.obtainStyledAttributes(attrs, R.styleable.CollapseLayout_LayoutParams);
+      spec = CollapseSpec.intern(CollapseSpec.fromTypedArray(c, typedArray));
+      collapsedScrim =
+          typedArray.getDrawable(R.styleable.CollapseLayout_LayoutParams_clScrim);
+      if (collapsedScrim != null) {
+        // mutate once, the alpha is changed on every frame
+        collapsedScrim = collapsedScrim.mutate();
+      }
+      typedArray.recycle();
+    }
+
+    public LayoutParams(int width, int height) {
+      super(width, height);
+    }
+
+    public LayoutParams(int width, int height, CollapseSpec spec) {
+      super(width, height);
+      setCollapseSpec(spec);
+    }
+
+    public LayoutParams(ViewGroup.LayoutParams p) {
+      super(p);
+    }
+
+    public LayoutParams(MarginLayoutParams source) {
+      super(source);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public LayoutParams(LinearLayout.LayoutParams source) {
+      super(source);
+    }
+
+    private static CollapseSpec getCompiledSpec(Context c, AttributeSet attrs) {
+      CollapseSpecProvider provider = collapseSpecProvider;
+      if (provider == null || attrs == null) {
+        return null;
+      }
+      int viewId = attrs.getIdAttributeResourceValue(View.NO_ID);
+      if (viewId == View.NO_ID) {
+        return null;
+      }
+      return provider.getCollapseSpec(c, viewId, attrs);
+    }
+
+    public CollapseSpec getCollapseSpec() {
+      return spec;
+    }
+
+    /**
+     * set the collapsed state of the child, use
+     * {@link CollapseRelativeBar#setCollapseSpec(View, CollapseSpec)} once the child is added
+     *
+     * @param spec the spec, can be shared by many children
+     */
+    public void setCollapseSpec(CollapseSpec spec) {
+      if (spec == null) {
+        throw new IllegalArgumentException("spec can't be null");
+      }
+      this.spec = spec;
+    }
+  }
+
+  /**
+   * the immutable collapsed state of a child, built in code by {@link Builder}, or parsed from
+   * xml. A spec holds no per view state, one instance can be shared by any number of children
+   * and bars. Specs parsed from xml are interned, so equal specs inflated again and again, like
+   * the same header in many fragments, share one instance.
+   */
+  public static final class CollapseSpec {
+    public static final CollapseSpec DEFAULT = new Builder().build();
+
+    // stateless, shared by the specs and the settle anim
+    static final Interpolator LINEAR_INTERPOLATOR = new LinearInterpolator();
+    private static final SparseArray<Interpolator> INTERPOLATOR_CACHE = new SparseArray<>();
+    private static final WeakHashMap<CollapseSpec, WeakReference<CollapseSpec>> INTERNED_SPECS =
+        new WeakHashMap<>();
+
+    private final int collapsedMode;
+    private final float collapsedScaleX;
+    private final float collapsedScaleY;
+    private final int collapsedWidth;
+    private final int collapsedHeight;
+    private final float collapsedAlpha;
+    private final int collapsedMarginLeft;
+    private final int collapsedMarginRight;
+    private final int collapsedMarginTop;
+    private final int collapsedMarginBottom;
+    private final int collapsedTextColor;
+    private final float collapsedTextSize;
+
+    private final Interpolator interpolator;
+    private final Interpolator scaleXInterpolator;
+    private final Interpolator scaleYInterpolator;
+
+    private final int useLayer;
+    private final int sizeMode;
+    private final int timelineSteps;
+
+    // the keyframe ranges of the property groups, in collapse percent
+    private final float translationStart;
+    private final float translationEnd;
+    private final float sizeStart;
+    private final float sizeEnd;
+    private final float scaleStart;
+    private final float scaleEnd;
+    private final float alphaStart;
+    private final float alphaEnd;
+
+    private CollapseSpec(Builder builder) {
+      collapsedMode = builder.collapsedMode;
+      collapsedScaleX = builder.collapsedScaleX;
+      collapsedScaleY = builder.collapsedScaleY;
+      collapsedWidth = builder.collapsedWidth;
+      collapsedHeight = builder.collapsedHeight;
+      collapsedAlpha = builder.collapsedAlpha;
+      collapsedMarginLeft = builder.collapsedMarginLeft;
+      collapsedMarginRight = builder.collapsedMarginRight;
+      collapsedMarginTop = builder.collapsedMarginTop;
+      collapsedMarginBottom = builder.collapsedMarginBottom;
+      collapsedTextColor = builder.collapsedTextColor;
+      collapsedTextSize = builder.collapsedTextSize;
+      interpolator = builder.interpolator;
+      scaleXInterpolator = builder.scaleXInterpolator;
+      scaleYInterpolator = builder.scaleYInterpolator;
+      useLayer = builder.useLayer;
+      sizeMode = builder.sizeMode;
+      timelineSteps = builder.timelineSteps;
+      translationStart = builder.translationStart;
+      translationEnd = builder.translationEnd;
+      sizeStart = builder.sizeStart;
+      sizeEnd = builder.sizeEnd;
+      scaleStart = builder.scaleStart;
+      scaleEnd = builder.scaleEnd;
+      alphaStart = builder.alphaStart;
+      alphaEnd = builder.alphaEnd;
+    }
+
+    /**
+     * parse a spec from a style resource holding the cl* child attributes, parse it once and
+     * share it
+     *
+     * @param context      the context
+     * @param styleResId   the style resource
+     */
+    public static CollapseSpec fromStyle(Context context, int styleResId) {
+      TypedArray typedArray =
+          context.obtainStyledAttributes(styleResId, R.styleable.CollapseLayout_LayoutParams);
+      CollapseSpec spec = intern(fromTypedArray(context, typedArray));
+      typedArray.recycle();
+      return spec;
+    }
+
+    private static CollapseSpec fromTypedArray(Context c, TypedArray typedArray) {
+      Builder builder = new Builder();
+      builder.collapsedMode = typedArray.getInt(R.styleable.CollapseLayout_LayoutParams_clMode,
+          LayoutParams.COLLAPSED_MODE_PIN);
+      float collapsedScale = typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScale,
+          LayoutParams.COLLAPSED_NO_SCALE);
+      if (collapsedScale != LayoutParams.COLLAPSED_NO_SCALE) {
+        builder.collapsedScaleX = collapsedScale;
+        builder.collapsedScaleY = collapsedScale;
+      } else {
+        builder.collapsedScaleX =
+            typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScaleX,
+                LayoutParams.COLLAPSED_NO_SCALE);
+        builder.collapsedScaleY =
+            typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScaleY,
+                LayoutParams.COLLAPSED_NO_SCALE);
+      }
+
+      builder.collapsedWidth =
+          typedArray.getDimensionPixelOffset(R.styleable.CollapseLayout_LayoutParams_clWidth, -1);
+      builder.collapsedHeight =
+          typedArray.getDimensionPixelSize(R.styleable.CollapseLayout_LayoutParams_clHeight, -1);
+
+      builder.collapsedMarginLeft = typedArray.getDimensionPixelSize(
+          R.styleable.CollapseLayout_LayoutParams_clMarginLeft,
+          LayoutParams.COLLAPSED_NO_TRANSLATION_X);
+      builder.collapsedMarginRight = typedArray.getDimensionPixelSize(
+          R.styleable.CollapseLayout_LayoutParams_clMarginRight,
+          LayoutParams.COLLAPSED_NO_TRANSLATION_X);
+      builder.collapsedMarginTop = typedArray.getDimensionPixelSize(
+          R.styleable.CollapseLayout_LayoutParams_clMarginTop,
+          LayoutParams.COLLAPSED_NO_TRANSLATION_Y);
+      builder.collapsedMarginBottom = typedArray.getDimensionPixelSize(
+          R.styleable.CollapseLayout_LayoutParams_clMarginBottom,
+          LayoutParams.COLLAPSED_NO_TRANSLATION_Y);
+      builder.collapsedAlpha =
+          typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clAlpha,
+              LayoutParams.COLLAPSED_NO_ALPHA);
+      builder.collapsedTextColor = typedArray.getColor(
+          R.styleable.CollapseLayout_LayoutParams_clTextColor,
+          LayoutParams.COLLAPSED_TEXT_COLOR_NO_CHANGE);
+      builder.collapsedTextSize = typedArray.getDimension(
+          R.styleable.CollapseLayout_LayoutParams_clTextSize,
+          LayoutParams.COLLAPSED_TEXT_SIZE_NO_CHANGE);
+      builder.useLayer = typedArray.getInt(R.styleable.CollapseLayout_LayoutParams_clUseLayer,
+          LayoutParams.USE_LAYER_INHERIT);
+      builder.sizeMode = typedArray.getInt(R.styleable.CollapseLayout_LayoutParams_clSizeMode,
+          LayoutParams.SIZE_MODE_INHERIT);
+      builder.timelineSteps = typedArray.getInt(
+          R.styleable.CollapseLayout_LayoutParams_clTimelineSteps,
+          LayoutParams.TIMELINE_STEPS_INHERIT);
+      builder.translationStart = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clTranslationStart, 1, 1, 0f);
+      builder.translationEnd = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clTranslationEnd, 1, 1, 1f);
+      builder.sizeStart = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clSizeStart, 1, 1, 0f);
+      builder.sizeEnd = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clSizeEnd, 1, 1, 1f);
+      builder.scaleStart = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clScaleStart, 1, 1, 0f);
+      builder.scaleEnd = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clScaleEnd, 1, 1, 1f);
+      builder.alphaStart = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clAlphaStart, 1, 1, 0f);
+      builder.alphaEnd = typedArray.getFraction(
+          R.styleable.CollapseLayout_LayoutParams_clAlphaEnd, 1, 1, 1f);
+
+      builder.interpolator = getInterpolator(c, typedArray,
+          R.styleable.CollapseLayout_LayoutParams_clInterpolator);
+      builder.scaleXInterpolator = getInterpolator(c, typedArray,
+          R.styleable.CollapseLayout_LayoutParams_clScaleXInterpolator);
+      builder.scaleYInterpolator = getInterpolator(c, typedArray,
+          R.styleable.CollapseLayout_LayoutParams_clScaleYInterpolator);
+      return builder.build();
+    }
+
+    private static Interpolator getInterpolator(Context c, TypedArray typedArray, int index) {
+      int interpolatorId = typedArray.getResourceId(index, -1);
+      return interpolatorId != -1 ? loadInterpolator(c, interpolatorId) : LINEAR_INTERPOLATOR;
+    }
+
+    /**
+     * load an interpolator resource through a process wide cache, interpolators are stateless,
+     * so every spec using the resource shares one instance
+     *
+     * @param context the context
+     * @param id      the interpolator resource id
+     */
+    public static Interpolator loadInterpolator(Context context, int id) {
+      synchronized (INTERPOLATOR_CACHE) {
+        Interpolator interpolator = INTERPOLATOR_CACHE.get(id);
+        if (interpolator == null) {
+          interpolator = AnimationUtils.loadInterpolator(context.getApplicationContext(), id);
+          INTERPOLATOR_CACHE.put(id, interpolator);
+        }
+        return interpolator;
+      }
+    }
+
+    /**
+     * get the shared instance equal to the spec
+     */
+    private static CollapseSpec intern(CollapseSpec spec) {
+      synchronized (INTERNED_SPECS) {
+        WeakReference<CollapseSpec> reference = INTERNED_SPECS.get(spec);
+        CollapseSpec interned = reference != null ? reference.get() : null;
+        if (interned == null) {
+          INTERNED_SPECS.put(spec, new WeakReference<>(spec));
+          interned = spec;
+        }
+        return interned;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CollapseSpec)) {
+        return false;
+      }
+      CollapseSpec spec = (CollapseSpec) o;
+      return collapsedMode == spec.collapsedMode
+          && collapsedScaleX == spec.collapsedScaleX
+          && collapsedScaleY == spec.collapsedScaleY
+          && collapsedWidth == spec.collapsedWidth
+          && collapsedHeight == spec.collapsedHeight
+          && collapsedAlpha == spec.collapsedAlpha
+          && collapsedMarginLeft == spec.collapsedMarginLeft
+          && collapsedMarginRight == spec.collapsedMarginRight
+          && collapsedMarginTop == spec.collapsedMarginTop
+          && collapsedMarginBottom == spec.collapsedMarginBottom
+          && collapsedTextColor == spec.collapsedTextColor
+          && collapsedTextSize == spec.collapsedTextSize
+          && interpolator == spec.interpolator
+          && scaleXInterpolator == spec.scaleXInterpolator
+          && scaleYInterpolator == spec.scaleYInterpolator
+          && useLayer == spec.useLayer
+          && sizeMode == spec.sizeMode
+          && timelineSteps == spec.timelineSteps
+          && translationStart == spec.translationStart
+          && translationEnd == spec.translationEnd
+          && sizeStart == spec.sizeStart
+          && sizeEnd == spec.sizeEnd
+          && scaleStart == spec.scaleStart
+          && scaleEnd == spec.scaleEnd
+          && alphaStart == spec.alphaStart
+          && alphaEnd == spec.alphaEnd;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = collapsedMode;
+      result = 31 * result + Float.floatToIntBits(collapsedScaleX);
+      result = 31 * result + Float.floatToIntBits(collapsedScaleY);
+      result = 31 * result + collapsedWidth;
+      result = 31 * result + collapsedHeight;
+      result = 31 * result + Float.floatToIntBits(collapsedAlpha);
+      result = 31 * result + collapsedMarginLeft;
+      result = 31 * result + collapsedMarginRight;
+      result = 31 * result + collapsedMarginTop;
+      result = 31 * result + collapsedMarginBottom;
+      result = 31 * result + collapsedTextColor;
+      result = 31 * result + Float.floatToIntBits(collapsedTextSize);
+      result = 31 * result + System.identityHashCode(interpolator);
+      result = 31 * result + System.identityHashCode(scaleXInterpolator);
+      result = 31 * result + System.identityHashCode(scaleYInterpolator);
+      result = 31 * result + useLayer;
+      result = 31 * result + sizeMode;
+      result = 31 * result + timelineSteps;
+      result = 31 * result + Float.floatToIntBits(translationStart);
+      result = 31 * result + Float.floatToIntBits(translationEnd);
+      result = 31 * result + Float.floatToIntBits(sizeStart);
+      result = 31 * result + Float.floatToIntBits(sizeEnd);
+      result = 31 * result + Float.floatToIntBits(scaleStart);
+      result = 31 * result + Float.floatToIntBits(scaleEnd);
+      result = 31 * result + Float.floatToIntBits(alphaStart);
+      result = 31 * result + Float.floatToIntBits(alphaEnd);
+      return result;
+    }
+
+    /**
+     * build a CollapseSpec in code, every property defaults to the same value as its xml
+     * attribute
+     */
+    public static final class Builder {
+      private int collapsedMode = LayoutParams.COLLAPSED_MODE_PIN;
+      private float collapsedScaleX = LayoutParams.COLLAPSED_NO_SCALE;
+      private float collapsedScaleY = LayoutParams.COLLAPSED_NO_SCALE;
+      private int collapsedWidth = -1;
+      private int collapsedHeight = -1;
+      private float collapsedAlpha = LayoutParams.COLLAPSED_NO_ALPHA;
+      private int collapsedMarginLeft = LayoutParams.COLLAPSED_NO_TRANSLATION_X;
+      private int collapsedMarginRight = LayoutParams.COLLAPSED_NO_TRANSLATION_X;
+      private int collapsedMarginTop = LayoutParams.COLLAPSED_NO_TRANSLATION_Y;
+      private int collapsedMarginBottom = LayoutParams.COLLAPSED_NO_TRANSLATION_Y;
+      private int collapsedTextColor = LayoutParams.COLLAPSED_TEXT_COLOR_NO_CHANGE;
+      private float collapsedTextSize = LayoutParams.COLLAPSED_TEXT_SIZE_NO_CHANGE;
+      private Interpolator interpolator = LINEAR_INTERPOLATOR;
+      private Interpolator scaleXInterpolator = LINEAR_INTERPOLATOR;
+      private Interpolator scaleYInterpolator = LINEAR_INTERPOLATOR;
+      private int useLayer = LayoutParams.USE_LAYER_INHERIT;
+      private int sizeMode = LayoutParams.SIZE_MODE_INHERIT;
+      private int timelineSteps = LayoutParams.TIMELINE_STEPS_INHERIT;
+      private float translationStart = 0f;
+      private float translationEnd = 1f;
+      private float sizeStart = 0f;
+      private float sizeEnd = 1f;
+      private float scaleStart = 0f;
+      private float scaleEnd = 1f;
+      private float alphaStart = 0f;
+      private float alphaEnd = 1f;
+
+      public Builder() {
+      }
+
+      /**
+       * start from an existing spec
+       */
+      public Builder(CollapseSpec spec) {
+        collapsedMode = spec.collapsedMode;
+        collapsedScaleX = spec.collapsedScaleX;
+        collapsedScaleY = spec.collapsedScaleY;
+        collapsedWidth = spec.collapsedWidth;
+        collapsedHeight = spec.collapsedHeight;
+        collapsedAlpha = spec.collapsedAlpha;
+        collapsedMarginLeft = spec.collapsedMarginLeft;
+        collapsedMarginRight = spec.collapsedMarginRight;
+        collapsedMarginTop = spec.collapsedMarginTop;
+        collapsedMarginBottom = spec.collapsedMarginBottom;
+        collapsedTextColor = spec.collapsedTextColor;
+        collapsedTextSize = spec.collapsedTextSize;
+        interpolator = spec.interpolator;
+        scaleXInterpolator = spec.scaleXInterpolator;
+        scaleYInterpolator = spec.scaleYInterpolator;
+        useLayer = spec.useLayer;
+        sizeMode = spec.sizeMode;
+        timelineSteps = spec.timelineSteps;
+        translationStart = spec.translationStart;
+        translationEnd = spec.translationEnd;
+        sizeStart = spec.sizeStart;
+        sizeEnd = spec.sizeEnd;
+        scaleStart = spec.scaleStart;
+        scaleEnd = spec.scaleEnd;
+        alphaStart = spec.alphaStart;
+        alphaEnd = spec.alphaEnd;
+      }
+
+      /**
+       * clMode
+       *
+       * @param collapsedMode {@link LayoutParams#COLLAPSED_MODE_PIN},
+       *                      {@link LayoutParams#COLLAPSED_MODE_OUT} or
+       *                      {@link LayoutParams#COLLAPSED_MODE_NONE}
+       */
+      public Builder setMode(int collapsedMode) {
+        this.collapsedMode = collapsedMode;
+        return this;
+      }
+
+      /**
+       * clScale
+       */
+      public Builder setScale(float collapsedScale) {
+        this.collapsedScaleX = collapsedScale;
+        this.collapsedScaleY = collapsedScale;
+        return this;
+      }
+
+      /**
+       * clScaleX
+       */
+      public Builder setScaleX(float collapsedScaleX) {
+        this.collapsedScaleX = collapsedScaleX;
+        return this;
+      }
+
+      /**
+       * clScaleY
+       */
+      public Builder setScaleY(float collapsedScaleY) {
+        this.collapsedScaleY = collapsedScaleY;
+        return this;
+      }
+
+      /**
+       * clWidth, in px
+       */
+      public Builder setWidth(int collapsedWidth) {
+        this.collapsedWidth = collapsedWidth;
+        return this;
+      }
+
+      /**
+       * clHeight, in px
+       */
+      public Builder setHeight(int collapsedHeight) {
+        this.collapsedHeight = collapsedHeight;
+        return this;
+      }
+
+      /**
+       * clAlpha
+       */
+      public Builder setAlpha(float collapsedAlpha) {
+        this.collapsedAlpha = collapsedAlpha;
+        return this;
+      }
+
+      /**
+       * clMarginLeft, in px
+       */
+      public Builder setMarginLeft(int collapsedMarginLeft) {
+        this.collapsedMarginLeft = collapsedMarginLeft;
+        return this;
+      }
+
+      /**
+       * clMarginRight, in px
+       */
+      public Builder setMarginRight(int collapsedMarginRight) {
+        this.collapsedMarginRight = collapsedMarginRight;
+        return this;
+      }
+
+      /**
+       * clMarginTop, in px
+       */
+      public Builder setMarginTop(int collapsedMarginTop) {
+        this.collapsedMarginTop = collapsedMarginTop;
+        return this;
+      }
+
+      /**
+       * clMarginBottom, in px
+       */
+      public Builder setMarginBottom(int collapsedMarginBottom) {
+        this.collapsedMarginBottom = collapsedMarginBottom;
+        return this;
+      }
+
+      /**
+       * clTextColor, only works for TextView
+       */
+      public Builder setTextColor(int collapsedTextColor) {
+        this.collapsedTextColor = collapsedTextColor;
+        return this;
+      }
+
+      /**
+       * clTextSize, in px, only works for TextView
+       */
+      public Builder setTextSize(float collapsedTextSize) {
+        this.collapsedTextSize = collapsedTextSize;
+        return this;
+      }
+
+      /**
+       * clInterpolator, null means linear
+       */
+      public Builder setInterpolator(Interpolator interpolator) {
+        this.interpolator = interpolator != null ? interpolator : LINEAR_INTERPOLATOR;
+        return this;
+      }
+
+      /**
+       * clScaleXInterpolator, null means linear
+       */
+      public Builder setScaleXInterpolator(Interpolator scaleXInterpolator) {
+        this.scaleXInterpolator =
+            scaleXInterpolator != null ? scaleXInterpolator : LINEAR_INTERPOLATOR;
+        return this;
+      }
+
+      /**
+       * clScaleYInterpolator, null means linear
+       */
+      public Builder setScaleYInterpolator(Interpolator scaleYInterpolator) {
+        this.scaleYInterpolator =
+            scaleYInterpolator != null ? scaleYInterpolator : LINEAR_INTERPOLATOR;
+        return this;
+      }
+
+      /**
+       * clUseLayer
+       *
+       * @param useLayer {@link #USE_LAYER_NONE} or {@link #USE_LAYER_AUTO}
+       */
+      public Builder setUseLayer(int useLayer) {
+        this.useLayer = useLayer;
+        return this;
+      }
+
+      /**
+       * clSizeMode
+       *
+       * @param sizeMode {@link #SIZE_MODE_LAYOUT} or {@link #SIZE_MODE_VISUAL}
+       */
+      public Builder setSizeMode(int sizeMode) {
+        this.sizeMode = sizeMode;
+        return this;
+      }
+
+      /**
+       * clTimelineSteps
+       */
+      public Builder setTimelineSteps(int timelineSteps) {
+        this.timelineSteps = timelineSteps;
+        return this;
+      }
+
+      /**
+       * clTranslationStart and clTranslationEnd, in collapse percent from 0 to 1
+       */
+      public Builder setTranslationRange(float start, float end) {
+        this.translationStart = start;
+        this.translationEnd = end;
+        return this;
+      }
+
+      /**
+       * clSizeStart and clSizeEnd, in collapse percent from 0 to 1
+       */
+      public Builder setSizeRange(float start, float end) {
+        this.sizeStart = start;
+        this.sizeEnd = end;
+        return this;
+      }
+
+      /**
+       * clScaleStart and clScaleEnd, in collapse percent from 0 to 1
+       */
+      public Builder setScaleRange(float start, float end) {
+        this.scaleStart = start;
+        this.scaleEnd = end;
+        return this;
+      }
+
+      /**
+       * clAlphaStart and clAlphaEnd, in collapse percent from 0 to 1
+       */
+      public Builder setAlphaRange(float start, float end) {
+        this.alphaStart = start;
+        this.alphaEnd = end;
+        return this;
+      }
+
+      public CollapseSpec build() {
+        return new CollapseSpec(this);
+      }
+    }
+  }
+
+  static class SavedState extends BaseSavedState {
+    private float collapsePercent;
+    private int currentAction;
+
+    SavedState(Parcelable superState) {
+      super(superState);
+    }
+
+    private SavedState(Parcel source) {
+      super(source);
+      collapsePercent = source.readFloat();
+      currentAction = source.readInt();
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+      super.writeToParcel(out, flags);
+      out.writeFloat(collapsePercent);
+      out.writeInt(currentAction);
+    }
+
+    public static final Parcelable.Creator<SavedState> CREATOR =
+        new Parcelable.Creator<SavedState>() {
+          @Override
+          public SavedState createFromParcel(Parcel source) {
+            return new SavedState(source);
+          }
+
+          @Override
+          public SavedState[] newArray(int size) {
+            return new SavedState[size];
+          }
+        };
+  }
+
+  private static class ChildOriginState {
+    public int top;
+    public int left;
+    public int right;
+    public int bottom;
+    public int width;
+    public int height;
+    public int layoutWidth;
+    public int layoutHeight;
+    public float alpha;
+    public float scaleX;
+    public float scaleY;
+
+    public float textSize;
+    public int textColor;
+
+    // the plans resolved the LayoutParams captured with the origins
+    private ViewGroup.LayoutParams layoutParams;
+
+    public ChildOriginState(View child) {
+      update(child);
+    }
+
+    /**
+     * @return whether an origin or the LayoutParams changed since the last update
+     */
+    public boolean update(View child) {
+      ViewGroup.LayoutParams params = child.getLayoutParams();
+      boolean changed = params != layoutParams
+          || top != child.getTop() || left != child.getLeft()
+          || right != child.getRight() || bottom != child.getBottom()
+          || width != child.getWidth() || height != child.getHeight()
+          || layoutWidth != params.width || layoutHeight != params.height
+          || alpha != child.getAlpha()
+          || scaleX != child.getScaleX() || scaleY != child.getScaleY();
+      layoutParams = params;
+      top = child.getTop();
+      left = child.getLeft();
+      right = child.getRight();
+      bottom = child.getBottom();
+
+      width = child.getWidth();
+      height = child.getHeight();
+      layoutWidth = params.width;
+      layoutHeight = params.height;
+      alpha = child.getAlpha();
+      scaleX = child.getScaleX();
+      scaleY = child.getScaleY();
+
+      if (child instanceof TextView) {
+        TextView textView = (TextView) child;
+        float size = textView.getTextSize();
+        int color = textView.getTextColors().getDefaultColor();
+        changed |= size != textSize || color != textColor;
+        textSize = size;
+        textColor = color;
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * the resolved collapse transition of a child, only holds the property ops the child needs,
+   * with the start and end values already computed from its origin state
+   */
+  private static class ChildTransitionPlan {
+    // the text color, it isn't a TransitionOps op
+    private static final int NO_OP = -1;
+
+    private final View child;
+    private final LayoutParams layoutParams;
+    // the spec the plan was resolved from, the LayoutParams may get a new one
+    private final CollapseSpec spec;
+    private final float[] opThresholds;
+    private final TransitionOps ops = new TransitionOps();
+
+    private boolean layerPromoted;
+
+    // bits of the OP_WIDTH and OP_HEIGHT ops shown by clip bounds instead of LayoutParams
+    private int visualOps;
+    private int expandedLayoutWidth;
+    private int expandedLayoutHeight;
+    private int visualWidth;
+    private int visualHeight;
+    private int clipWidth;
+    private int clipHeight;
+    private boolean visualCollapsed;
+    private Rect visualClipBounds;
+
+    private CollapseHandler[] handlers = NO_COLLAPSE_HANDLERS;
+
+    // the keyframe range of each op, the text color is at index ops.size()
+    private final float[] rangeStarts = new float[TransitionOps.MAX_OP_COUNT + 1];
+    private final float[] rangeEnds = new float[TransitionOps.MAX_OP_COUNT + 1];
+    private boolean hasRanges;
+    // the baked progress of each op and the text color, null if not baked
+    private Timeline[] timelines;
+
+    private boolean hasTextColor;
+    private int startTextColor;
+    private int endTextColor;
+    private boolean textColorApplied;
+    private int lastTextColor;
+
+    // the text size is drawn by the scale ops and only set on the TextView once fully collapsed
+    private boolean hasTextSize;
+    private float startTextSize;
+    private float endTextSize;
+    private float textScale;
+    private boolean textSizeCommitted;
+    private float textSizeOffsetX;
+    private float textSizeOffsetY;
+    private boolean accessibilityHidden;
+    // the importance of the child to restore once it isn't hidden
+    private int importantForAccessibility;
+
+    public ChildTransitionPlan(View child, LayoutParams layoutParams, float[] opThresholds) {
+      this.child = child;
+      this.layoutParams = layoutParams;
+      this.spec = layoutParams != null ? layoutParams.spec : null;
+      this.opThresholds = opThresholds;
+    }
+
+    public void addOp(int op, float startValue, float endValue) {
+      ops.add(op, startValue, endValue, opThresholds[op]);
+    }
+
+    public void setTextColor(int startTextColor, int endTextColor) {
+      this.hasTextColor = true;
+      this.startTextColor = startTextColor;
+      this.endTextColor = endTextColor;
+    }
+
+    /**
+     * must be called after the scale ops, which already end at the scaled text size, are added
+     */
+    public void setTextSize(float startTextSize, float endTextSize) {
+      this.hasTextSize = true;
+      this.startTextSize = startTextSize;
+      this.endTextSize = endTextSize;
+      this.textScale = endTextSize / startTextSize;
+    }
+
+    /**
+     * show the width and height ops by clipping the child measured in the expanded state, must be
+     * called after the ops are added
+     */
+    public void setVisualSize(ChildOriginState childOriginState) {
+      expandedLayoutWidth = childOriginState.layoutWidth;
+      expandedLayoutHeight = childOriginState.layoutHeight;
+      clipWidth = childOriginState.width;
+      clipHeight = childOriginState.height;
+      for (int i = 0; i < ops.size(); i++) {
+        int op = ops.getOp(i);
+        if (op != TransitionOps.OP_WIDTH && op != TransitionOps.OP_HEIGHT) {
+          continue;
+        }
+        if (ops.getEndValue(i) <= ops.getStartValue(i)) {
+          // clipping can only shrink the child, a growing size stays a layout op
+          visualOps |= 1 << op;
+        } else if (op == TransitionOps.OP_WIDTH) {
+          clipWidth = (int) ops.getEndValue(i);
+        } else {
+          clipHeight = (int) ops.getEndValue(i);
+        }
+      }
+      visualWidth = clipWidth;
+      visualHeight = clipHeight;
+    }
+
+    /**
+     * resolve the keyframe range of each op and bake the progress into timelines, must be called
+     * after the ops and the text color are set
+     *
+     * @param steps the steps of the baked timelines, 0 to evaluate the interpolators every frame
+     */
+    public void resolveTimelines(int steps) {
+      int count = ops.size();
+      for (int i = 0; i <= count; i++) {
+        int op = i < count ? ops.getOp(i) : NO_OP;
+        rangeStarts[i] = getRangeStart(op);
+        rangeEnds[i] = getRangeEnd(op);
+        hasRanges |= rangeStarts[i] != 0f || rangeEnds[i] != 1f;
+      }
+      if (steps <= 0 || layoutParams == null) {
+        return;
+      }
+      timelines = new Timeline[count + 1];
+      int sampleCount = Timeline.getSampleCount(steps);
+      for (int i = 0; i <= count; i++) {
+        int op = i < count ? ops.getOp(i) : NO_OP;
+        Interpolator interpolator = getInterpolator(op);
+        // most ops share the child interpolator and range, bake them once
+        for (int j = 0; j < i && timelines[i] == null; j++) {
+          int sharedOp = j < count ? ops.getOp(j) : NO_OP;
+          if (getInterpolator(sharedOp) == interpolator && rangeStarts[j] == rangeStarts[i]
+              && rangeEnds[j] == rangeEnds[i]) {
+            timelines[i] = timelines[j];
+          }
+        }
+        if (timelines[i] == null) {
+          float[] samples = new float[sampleCount];
+          for (int j = 0; j < sampleCount; j++) {
+            samples[j] = interpolator.getInterpolation(Timeline.getRangeProgress(
+                Timeline.getSamplePercent(j, sampleCount), rangeStarts[i], rangeEnds[i]));
+          }
+          timelines[i] = new Timeline(samples);
+        }
+      }
+    }
+
+    private Interpolator getInterpolator(int op) {
+      if (op == TransitionOps.OP_SCALE_X) {
+        return spec.scaleXInterpolator;
+      } else if (op == TransitionOps.OP_SCALE_Y) {
+        return spec.scaleYInterpolator;
+      }
+      return spec.interpolator;
+    }
+
+    private float getRangeStart(int op) {
+      if (layoutParams == null) {
+        return 0f;
+      }
+      switch (op) {
+        case TransitionOps.OP_TRANSLATION_X:
+        case TransitionOps.OP_TRANSLATION_Y:
+          return spec.translationStart;
+        case TransitionOps.OP_WIDTH:
+        case TransitionOps.OP_HEIGHT:
+          return spec.sizeStart;
+        case TransitionOps.OP_SCALE_X:
+        case TransitionOps.OP_SCALE_Y:
+          return spec.scaleStart;
+        default:
+          // alpha and the text color fade together
+          return spec.alphaStart;
+      }
+    }
+
+    private float getRangeEnd(int op) {
+      if (layoutParams == null) {
+        return 1f;
+      }
+      switch (op) {
+        case TransitionOps.OP_TRANSLATION_X:
+        case TransitionOps.OP_TRANSLATION_Y:
+          return spec.translationEnd;
+        case TransitionOps.OP_WIDTH:
+        case TransitionOps.OP_HEIGHT:
+          return spec.sizeEnd;
+        case TransitionOps.OP_SCALE_X:
+        case TransitionOps.OP_SCALE_Y:
+          return spec.scaleEnd;
+        default:
+          return spec.alphaEnd;
+      }
+    }
+
+    /**
+     * the progress of the op at index for the collapse percent
+     *
+     * @param childPercent the child interpolator progress, only valid without timelines and
+     *                     ranges
+     */
+    private float getProgress(int index, int op, float percent, float childPercent) {
+      if (timelines != null) {
+        return timelines[index].getProgress(percent);
+      }
+      if (!hasRanges && op != TransitionOps.OP_SCALE_X && op != TransitionOps.OP_SCALE_Y) {
+        return childPercent;
+      }
+      return getInterpolator(op).getInterpolation(
+          Timeline.getRangeProgress(percent, rangeStarts[index], rangeEnds[index]));
+    }
+
+    public boolean isEmpty() {
+      return ops.size() == 0 && !hasTextColor && handlers.length == 0;
+    }
+
+    public void promoteLayer(int barUseLayer) {
+      if (layoutParams == null) {
+        return;
+      }
+      int useLayer = spec.useLayer != LayoutParams.USE_LAYER_INHERIT
+          ? spec.useLayer : barUseLayer;
+      // a layer of a child which relayouts or redraws its text would be invalidated every frame,
+      // the layer types exist since api 11, the minSdkVersion, so the view is called directly
+      if (useLayer != USE_LAYER_AUTO || changesLayout() || hasTextColor
+          || child.getLayerType() != View.LAYER_TYPE_NONE) {
+        return;
+      }
+      child.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+      layerPromoted = true;
+    }
+
+    public void releaseLayer() {
+      if (layerPromoted) {
+        child.setLayerType(View.LAYER_TYPE_NONE, null);
+        layerPromoted = false;
+      }
+    }
+
+    public boolean changesLayout() {
+      for (int i = 0; i < ops.size(); i++) {
+        int op = ops.getOp(i);
+        if ((op == TransitionOps.OP_WIDTH || op == TransitionOps.OP_HEIGHT)
+            && (visualOps & (1 << op)) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return whether the child LayoutParams changed
+     */
+    public boolean apply(float percent) {
+      if (ops.size() == 0 && !hasTextColor) {
+        return false;
+      }
+      boolean layoutChanged = false;
+      boolean visualSizeChanged = false;
+      float childPercent = timelines == null && !hasRanges
+          ? spec.interpolator.getInterpolation(percent) : 0f;
+      // land exactly on the end values when fully expanded or collapsed
+      boolean exact = percent <= 0f || percent >= 1f;
+      for (int i = 0; i < ops.size(); i++) {
+        int op = ops.getOp(i);
+        if (!ops.update(i, getProgress(i, op, percent, childPercent), exact)) {
+          continue;
+        }
+        float value = ops.getValue(i);
+        switch (op) {
+          case TransitionOps.OP_TRANSLATION_X:
+            setTranslationX(textSizeCommitted ? value + textSizeOffsetX : value);
+            break;
+          case TransitionOps.OP_TRANSLATION_Y:
+            setTranslationY(textSizeCommitted ? value + textSizeOffsetY : value);
+            break;
+          case TransitionOps.OP_WIDTH:
+            if ((visualOps & (1 << TransitionOps.OP_WIDTH)) != 0) {
+              visualWidth = (int) value;
+              visualSizeChanged = true;
+            } else {
+              layoutParams.width = (int) value;
+              layoutChanged = true;
+            }
+            break;
+          case TransitionOps.OP_HEIGHT:
+            if ((visualOps & (1 << TransitionOps.OP_HEIGHT)) != 0) {
+              visualHeight = (int) value;
+              visualSizeChanged = true;
+            } else {
+              layoutParams.height = (int) value;
+              layoutChanged = true;
+            }
+            break;
+          case TransitionOps.OP_SCALE_X:
+            setScaleX(textSizeCommitted ? value / textScale : value);
+            break;
+          case TransitionOps.OP_SCALE_Y:
+            setScaleY(textSizeCommitted ? value / textScale : value);
+            break;
+          case TransitionOps.OP_ALPHA:
+            setAlpha(value);
+            break;
+        }
+      }
+      if (hasTextColor) {
+        int textColor = CollapseMath.getColorBetweenTwoValue(startTextColor, endTextColor,
+            getProgress(ops.size(), NO_OP, percent, childPercent));
+        // setTextColor creates a ColorStateList and invalidates the text, only call it on change
+        if (!textColorApplied || textColor != lastTextColor) {
+          ((TextView) child).setTextColor(textColor);
+          lastTextColor = textColor;
+          textColorApplied = true;
+        }
+      }
+      if (visualOps != 0 && (visualSizeChanged || visualCollapsed != percent >= 1f)) {
+        layoutChanged |= applyVisualSize(percent >= 1f);
+      }
+      if (hasTextSize && textSizeCommitted != percent >= 1f) {
+        applyTextSize(percent >= 1f);
+        layoutChanged = true;
+      }
+      return layoutChanged;
+    }
+
+    /**
+     * set the collapsed text size once fully collapsed and the origin one otherwise, so the text
+     * is only laid out again at the ends, in between the scale ops draw the scaled text
+     */
+    private void applyTextSize(boolean collapsed) {
+      TextView textView = (TextView) child;
+      if (collapsed) {
+        float scaleX = child.getScaleX() / textScale;
+        float scaleY = child.getScaleY() / textScale;
+        // the new text size is laid out around the gravity inside the same bounds, while the
+        // scaled text shrank around the pivot, move the text back to where it was drawn
+        int gravity = GravityCompat.getAbsoluteGravity(textView.getGravity(),
+            ViewCompat.getLayoutDirection(child));
+        float anchorX;
+        switch (gravity & Gravity.HORIZONTAL_GRAVITY_MASK) {
+          case Gravity.RIGHT:
+            anchorX = child.getWidth() - textView.getTotalPaddingRight();
+            break;
+          case Gravity.CENTER_HORIZONTAL:
+            anchorX = (textView.getTotalPaddingLeft() + child.getWidth()
+                - textView.getTotalPaddingRight()) / 2f;
+            break;
+          default:
+            anchorX = textView.getTotalPaddingLeft();
+            break;
+        }
+        float anchorY;
+        switch (gravity & Gravity.VERTICAL_GRAVITY_MASK) {
+          case Gravity.BOTTOM:
+            anchorY = child.getHeight() - textView.getTotalPaddingBottom();
+            break;
+          case Gravity.CENTER_VERTICAL:
+            anchorY = (textView.getTotalPaddingTop() + child.getHeight()
+                - textView.getTotalPaddingBottom()) / 2f;
+            break;
+          default:
+            anchorY = textView.getTotalPaddingTop();
+            break;
+        }
+        textSizeOffsetX = (child.getPivotX() - anchorX) * scaleX * (1f - textScale);
+        textSizeOffsetY = (child.getPivotY() - anchorY) * scaleY * (1f - textScale);
+        setScaleX(scaleX);
+        setScaleY(scaleY);
+        setTranslationX(child.getTranslationX() + textSizeOffsetX);
+        setTranslationY(child.getTranslationY() + textSizeOffsetY);
+      } else {
+        setScaleX(child.getScaleX() * textScale);
+        setScaleY(child.getScaleY() * textScale);
+        setTranslationX(child.getTranslationX() - textSizeOffsetX);
+        setTranslationY(child.getTranslationY() - textSizeOffsetY);
+      }
+      textSizeCommitted = collapsed;
+      textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, collapsed ? endTextSize : startTextSize);
+    }
+
+    // the child property setters of the transition, the properties exist since api 11, the
+    // minSdkVersion, so the view is called directly
+
+    private void setTranslationX(float value) {
+      child.setTranslationX(value);
+    }
+
+    private void setTranslationY(float value) {
+      child.setTranslationY(value);
+    }
+
+    private void setScaleX(float value) {
+      child.setScaleX(value);
+    }
+
+    private void setScaleY(float value) {
+      child.setScaleY(value);
+    }
+
+    private void setAlpha(float value) {
+      child.setAlpha(value);
+    }
+
+    /**
+     * commit the collapsed size to the LayoutParams once fully collapsed, otherwise keep the
+     * expanded LayoutParams and clip the child to the size it should show
+     *
+     * @return whether the child LayoutParams changed
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private boolean applyVisualSize(boolean collapsed) {
+      visualCollapsed = collapsed;
+      int layoutWidth = layoutParams.width;
+      int layoutHeight = layoutParams.height;
+      if ((visualOps & (1 << TransitionOps.OP_WIDTH)) != 0) {
+        layoutParams.width = collapsed ? visualWidth : expandedLayoutWidth;
+      }
+      if ((visualOps & (1 << TransitionOps.OP_HEIGHT)) != 0) {
+        layoutParams.height = collapsed ? visualHeight : expandedLayoutHeight;
+      }
+      int width = (visualOps & (1 << TransitionOps.OP_WIDTH)) != 0 ? visualWidth : clipWidth;
+      int height = (visualOps & (1 << TransitionOps.OP_HEIGHT)) != 0 ? visualHeight : clipHeight;
+      if (collapsed || width >= clipWidth && height >= clipHeight) {
+        // laid out at the size it shows
+        child.setClipBounds(null);
+      } else {
+        // clip against the expanded size, still right while the expanded LayoutParams relayout
+        if (visualClipBounds == null) {
+          visualClipBounds = new Rect();
+        }
+        visualClipBounds.set(0, 0, width, height);
+        child.setClipBounds(visualClipBounds);
+      }
+      return layoutParams.width != layoutWidth || layoutParams.height != layoutHeight;
+    }
+  }
+
+  /**
+   * run one step per frame, aligned to vsync by a Choreographer frame callback
+   */
+  private abstract class FrameRunnable implements Runnable {
+    protected boolean isAnimating = false;
+    private FrameCallbackDriver frameCallbackDriver;
+    // the metrics section of the frame steps, or NO_SECTION
+    private final int section;
+
+    public FrameRunnable(int section) {
+      this.section = section;
+    }
+
+    @Override
+    public void run() {
+      dispatchFrame(currentAnimationTimeMillis());
+    }
+
+    public void dispatchFrame(long frameTime) {
+      if (section == FrameMetrics.NO_SECTION) {
+        doFrame(frameTime);
+        return;
+      }
+      long start = beginSection(section);
+      try {
+        doFrame(frameTime);
+      } finally {
+        endSection(section, start);
+      }
+    }
+
+    /**
+     * @param frameTime the time of this frame, in {@link AnimationUtils#currentAnimationTimeMillis()}
+     *                  time base
+     */
+    public abstract void doFrame(long frameTime);
+
+    public void stop() {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        if (frameCallbackDriver != null) {
+          frameCallbackDriver.cancel();
+        }
+      } else {
+        removeCallbacks(this);
+      }
+      isAnimating = false;
+    }
 
-    // then draw scrim
-    LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
-    if (layoutParams.collapsedScrim != null) {
-      layoutParams.collapsedScrim.setBounds(
-          (int) (child.getLeft() + ViewCompat.getTranslationX(child)),
-          (int) (child.getTop() + ViewCompat.getTranslationY(child)),
-          (int) (child.getRight() + ViewCompat.getTranslationX(child)),
-          (int) (child.getBottom() + ViewCompat.getTranslationY(child)));
-      layoutParams.collapsedScrim.mutate().setAlpha((int) (255 * prePercent));
-      layoutParams.collapsedScrim.draw(canvas);
+    public boolean isAnimating() {
+      return isAnimating;
     }
 
-    if (statusBarScrim != null) {
-      statusBarScrim.mutate().setAlpha((int) (255 * prePercent));
+    protected void scheduleFrame() {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        if (frameCallbackDriver == null) {
+          frameCallbackDriver = new FrameCallbackDriver(this);
+        }
+        frameCallbackDriver.post();
+      } else {
+        ViewCompat.postOnAnimation(CollapseRelativeBar.this, this);
+      }
     }
-    return bool;
   }
 
-  public static class LayoutParams extends RelativeLayout.LayoutParams {
-    public static final int COLLAPSED_NO_SCALE = 1;
-    public static final int COLLAPSED_NO_TRANSLATION_X = -99887766;
-    public static final int COLLAPSED_NO_TRANSLATION_Y = -99887765;
-    public static final float COLLAPSED_NO_ALPHA = -1;
-    private static final int COLLAPSED_TEXT_COLOR_NO_CHANGE = 938271202;
-
-    public static final int COLLAPSED_MODE_PIN = 0;
-    public static final int COLLAPSED_MODE_OUT = 1;
-    public static final int COLLAPSED_MODE_NONE = 2;
+  /**
+   * drive the auto expand or collapse anim exactly one step per frame, every step is computed
+   * from the elapsed time since start, so the anim never drifts or overshoots the target height
+   */
+  private class AnimRunnable extends FrameRunnable {
+    private int startHeight;
+    private int targetHeight;
+    private long duration;
+    private long startTime;
+    private Interpolator interpolator = CollapseSpec.LINEAR_INTERPOLATOR;
 
-    private int collapsedMode = COLLAPSED_MODE_PIN;
+    public AnimRunnable() {
+      super(FrameMetrics.SECTION_ANIM);
+    }
 
-    private float collapsedScale = COLLAPSED_NO_SCALE;
-    private float collapsedScaleX = COLLAPSED_NO_SCALE;
-    private float collapsedScaleY = COLLAPSED_NO_SCALE;
+    @Override
+    public void doFrame(long frameTime) {
+      if (!isAnimating) {
+        return;
+      }
+      float fraction = duration <= 0 ? 1f
+          : Math.min(1f, (float) Math.max(0, frameTime - startTime) / duration);
+      int height = fraction >= 1f ? targetHeight
+          : startHeight + Math.round((targetHeight - startHeight)
+          * interpolator.getInterpolation(fraction));
+      doTranslation(getVisibleHeight() - height);
+      if (fraction >= 1f) {
+        isAnimating = false;
+        releaseChildLayersIfIdle();
+      } else {
+        scheduleFrame();
+      }
+    }
 
-    private int collapsedWidth = -1;
-    private int collapsedHeight = -1;
+    public void start(int targetHeight, long duration) {
+      this.startHeight = getVisibleHeight();
+      this.targetHeight = targetHeight;
+      this.duration = duration;
+      startTime = currentAnimationTimeMillis();
+      if (startHeight == targetHeight) {
+        return;
+      }
+      isAnimating = true;
+      promoteChildLayers();
+      scheduleFrame();
+    }
 
-    private float collapsedAlpha = COLLAPSED_NO_ALPHA;
+    public void setInterpolator(Interpolator interpolator) {
+      this.interpolator = interpolator;
+    }
+  }
 
-    private int collapsedMarginLeft = COLLAPSED_NO_TRANSLATION_X;
-    private int collapsedMarginRight = COLLAPSED_NO_TRANSLATION_X;
+  /**
+   * apply the coalesced transition of all nested scroll deltas received in a frame
+   */
+  private class TransitionRunnable extends FrameRunnable {
+    private float percent;
 
-    private int collapsedMarginTop = COLLAPSED_NO_TRANSLATION_Y;
-    private int collapsedMarginBottom = COLLAPSED_NO_TRANSLATION_Y;
+    public TransitionRunnable() {
+      // measured as a transition
+      super(FrameMetrics.NO_SECTION);
+    }
 
-    private int collapsedTextColor[] = null;
+    @Override
+    public void doFrame(long frameTime) {
+      if (!isAnimating) {
+        return;
+      }
+      isAnimating = false;
+      applyTransition(percent);
+    }
 
-    private Drawable collapsedScrim = null;
+    public void schedule(float percent) {
+      this.percent = percent;
+      if (!isAnimating) {
+        isAnimating = true;
+        scheduleFrame();
+      }
+    }
+  }
 
-    private Interpolator interpolator;
-    private Interpolator scaleXInterpolator;
-    private Interpolator scaleYInterpolator;
+  /**
+   * fling the bar height with the nested fling velocity, the velocity left when the bar is fully
+   * collapsed is passed on to the scrolling sibling, so it keeps moving in the same gesture
+   */
+  private class FlingRunnable extends FrameRunnable {
+    private final ScrollerCompat scroller = createFlingScroller();
+    private View target;
+    private int lastY;
 
-    public LayoutParams(Context c, AttributeSet attrs) {
-      super(c, attrs);
-      TypedArray typedArray =
-          c.obtainStyledAttributes(attrs, R.styleable.CollapseLayout_LayoutParams);
+    public FlingRunnable() {
+      super(FrameMetrics.SECTION_ANIM);
+    }
 
-      collapsedMode = typedArray.getInt(R.styleable.CollapseLayout_LayoutParams_clMode,
-          COLLAPSED_MODE_PIN);
-      collapsedScale = typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScale,
-          COLLAPSED_NO_SCALE);
-      if (collapsedScale != COLLAPSED_NO_SCALE) {
-        collapsedScaleX = collapsedScale;
-        collapsedScaleY = collapsedScale;
+    @Override
+    public void doFrame(long frameTime) {
+      if (!isAnimating) {
+        return;
+      }
+      if (!scroller.computeScrollOffset()) {
+        finish();
+        onStopNestedScroll();
+        return;
+      }
+      int y = scroller.getCurrY();
+      doTranslation(y - lastY);
+      lastY = y;
+      if (isCollapsed() && currentAction == ACTION_COLLAPSE) {
+        int leftVelocity = (int) scroller.getCurrVelocity();
+        View flingTarget = target;
+        finish();
+        releaseChildLayersIfIdle();
+        flingTarget(flingTarget, leftVelocity);
+      } else if (isExpanded() && currentAction == ACTION_EXPAND) {
+        finish();
+        releaseChildLayersIfIdle();
       } else {
-        collapsedScaleX =
-            typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScaleX,
-                COLLAPSED_NO_SCALE);
-        collapsedScaleY =
-            typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clScaleY,
-                COLLAPSED_NO_SCALE);
+        scheduleFrame();
       }
+    }
 
-      collapsedWidth =
-          typedArray.getDimensionPixelOffset(R.styleable.CollapseLayout_LayoutParams_clWidth, -1);
-      collapsedHeight =
-          typedArray.getDimensionPixelSize(R.styleable.CollapseLayout_LayoutParams_clHeight, -1);
+    public void start(View target, int velocityY) {
+      this.target = target;
+      lastY = 0;
+      // the bar bounds are checked every frame, so the scroller itself is unbounded
+      scroller.fling(0, 0, 0, velocityY, 0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+      isAnimating = true;
+      promoteChildLayers();
+      scheduleFrame();
+    }
 
-      collapsedMarginLeft = typedArray.getDimensionPixelSize(
-          R.styleable.CollapseLayout_LayoutParams_clMarginLeft,
-          COLLAPSED_NO_TRANSLATION_X);
-      collapsedMarginRight = typedArray.getDimensionPixelSize(
-          R.styleable.CollapseLayout_LayoutParams_clMarginRight,
-          COLLAPSED_NO_TRANSLATION_X);
-      collapsedMarginTop = typedArray.getDimensionPixelSize(
-          R.styleable.CollapseLayout_LayoutParams_clMarginTop, COLLAPSED_NO_TRANSLATION_Y);
-      collapsedMarginBottom = typedArray.getDimensionPixelSize(
-          R.styleable.CollapseLayout_LayoutParams_clMarginBottom,
-          COLLAPSED_NO_TRANSLATION_Y);
-      collapsedScrim =
-          typedArray.getDrawable(R.styleable.CollapseLayout_LayoutParams_clScrim);
-      collapsedAlpha = typedArray.getFloat(R.styleable.CollapseLayout_LayoutParams_clAlpha,
-          COLLAPSED_NO_ALPHA);
-      int textColor = typedArray.getColor(
-          R.styleable.CollapseLayout_LayoutParams_clTextColor,
-          COLLAPSED_TEXT_COLOR_NO_CHANGE);
-      if (textColor != COLLAPSED_TEXT_COLOR_NO_CHANGE) {
-        collapsedTextColor = new int[]{Color.alpha(textColor), Color.red(textColor),
-            Color.green(textColor), Color.blue(textColor)};
-      }
+    @Override
+    public void stop() {
+      super.stop();
+      scroller.abortAnimation();
+      target = null;
+    }
 
-      Interpolator defaultInterpolator = new LinearInterpolator();
+    private void finish() {
+      scroller.abortAnimation();
+      isAnimating = false;
+      target = null;
+    }
 
-      int interpolatorId = typedArray
-          .getResourceId(R.styleable.CollapseLayout_LayoutParams_clInterpolator, -1);
-      if (interpolatorId != -1) {
-        interpolator = AnimationUtils.loadInterpolator(c, interpolatorId);
-      } else {
-        interpolator = defaultInterpolator;
+    private void flingTarget(View target, int velocityY) {
+      if (velocityY == 0) {
+        return;
       }
-
-      int scaleXInterpolatorId = typedArray
-          .getResourceId(R.styleable.CollapseLayout_LayoutParams_clScaleXInterpolator, -1);
-      if (scaleXInterpolatorId != -1) {
-        scaleXInterpolator = AnimationUtils.loadInterpolator(c, interpolatorId);
-      } else {
-        scaleXInterpolator = defaultInterpolator;
+      if (target instanceof RecyclerView) {
+        ((RecyclerView) target).fling(0, velocityY);
+      } else if (target instanceof NestedScrollView) {
+        ((NestedScrollView) target).fling(velocityY);
+      } else if (target instanceof ScrollView) {
+        ((ScrollView) target).fling(velocityY);
       }
+    }
+  }
 
-      int scaleYInterpolatorId = typedArray
-          .getResourceId(R.styleable.CollapseLayout_LayoutParams_clScaleYInterpolator, -1);
-      if (scaleYInterpolatorId != -1) {
-        scaleYInterpolator = AnimationUtils.loadInterpolator(c, interpolatorId);
-      } else {
-        scaleYInterpolator = defaultInterpolator;
-      }
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private static class FrameCallbackDriver implements Choreographer.FrameCallback {
+    private static final long NANOS_PER_MILLI = 1000000L;
 
-      typedArray.recycle();
-    }
+    private final FrameRunnable frameRunnable;
 
-    public LayoutParams(int width, int height) {
-      super(width, height);
+    public FrameCallbackDriver(FrameRunnable frameRunnable) {
+      this.frameRunnable = frameRunnable;
     }
 
-    public LayoutParams(ViewGroup.LayoutParams p) {
-      super(p);
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      frameRunnable.dispatchFrame(frameTimeNanos / NANOS_PER_MILLI);
     }
 
-    public LayoutParams(MarginLayoutParams source) {
-      super(source);
+    public void post() {
+      Choreographer.getInstance().postFrameCallback(this);
     }
 
-    @TargetApi(Build.VERSION_CODES.KITKAT)
-    public LayoutParams(LinearLayout.LayoutParams source) {
-      super(source);
+    public void cancel() {
+      Choreographer.getInstance().removeFrameCallback(this);
     }
   }
 
-  private static class ChildOriginState {
-    public int top;
-    public int left;
-    public int right;
-    public int bottom;
-    public int width;
-    public int height;
-    public float alpha;
-    public float scaleX;
-    public float scaleY;
-
-    public float textSize;
-    public int[] textColor;
+  /**
+   * set the provider of the specs compiled from the layouts at build time, the inflated children
+   * it knows skip parsing their cl* attributes, set it before the layouts are inflated, usually
+   * in Application.onCreate
+   *
+   * @param provider the provider, usually the generated CollapseSpecs, null to parse every child
+   */
+  public static void setCollapseSpecProvider(CollapseSpecProvider provider) {
+    collapseSpecProvider = provider;
+  }
 
-    public Field mLeft;
-    public Field mTop;
-    public Field mRight;
-    public Field mBottom;
+  /**
+   * provide the spec of an inflated child without parsing its attributes, implemented by the
+   * CollapseSpecs class the spec-compiler generates
+   */
+  public interface CollapseSpecProvider {
+    /**
+     * @param context the context the child is inflated with
+     * @param viewId  the android:id of the child
+     * @param attrs   the attributes of the child, a spec is only returned for the very child it
+     *                was compiled from, see {@link CompiledAttributes}
+     * @return the spec, null if the child isn't compiled, its attributes are parsed then
+     */
+    CollapseSpec getCollapseSpec(Context context, int viewId, AttributeSet attrs);
+  }
 
-    private boolean canResetBorder;
+  /**
+   * the ids are shared by every layout of an app, and so are the attribute counts, a child of a
+   * layout the spec-compiler didn't see can have both of a compiled child. Its spec is only used
+   * when the child also has exactly the same cl* attributes and values
+   */
+  public static final class CompiledAttributes {
+    private CompiledAttributes() {
+    }
 
-    public ChildOriginState(View child) {
-      try {
-        RelativeLayout.LayoutParams layoutParams = (RelativeLayout.LayoutParams) child.getLayoutParams();
-        mLeft = ReflectionUtils.getOriginalField(layoutParams, "mLeft");
-        mTop = ReflectionUtils.getOriginalField(layoutParams, "mTop");
-        mRight = ReflectionUtils.getOriginalField(layoutParams, "mRight");
-        mBottom = ReflectionUtils.getOriginalField(layoutParams, "mBottom");
-      } catch (NoSuchFieldException e) {
-        e.printStackTrace();
+    /**
+     * sort the attributes of a compiled spec by id, with their values. The generated
+     * CollapseSpecs call it once, the R.attr ids aren't known when the specs are compiled
+     */
+    public static void sort(int[] attrIds, String[] stringValues, int[] values) {
+      // a handful of attributes, an insertion sort keeps the three arrays together
+      for (int i = 1; i < attrIds.length; i++) {
+        for (int j = i; j > 0 && attrIds[j - 1] > attrIds[j]; j--) {
+          swap(attrIds, j - 1, j);
+          swap(stringValues, (j - 1) * 2, j * 2);
+          swap(stringValues, (j - 1) * 2 + 1, j * 2 + 1);
+          swap(values, (j - 1) * 2, j * 2);
+          swap(values, (j - 1) * 2 + 1, j * 2 + 1);
+        }
       }
-      update(child);
     }
 
-    public void update(View child) {
-      RelativeLayout.LayoutParams layoutParams = (RelativeLayout.LayoutParams) child.getLayoutParams();
-
-      canResetBorder = false;
-
-      if (mLeft != null
-          && mTop != null
-          && mRight != null
-          && mBottom != null) {
-        try {
-          left = mLeft.getInt(layoutParams);
-          top = mTop.getInt(layoutParams);
-          right = mRight.getInt(layoutParams);
-          bottom = mBottom.getInt(layoutParams);
-          canResetBorder = true;
-        } catch (IllegalAccessException ignored) {
+    /**
+     * @param attrs        the attributes of the inflated child
+     * @param attrIds      the cl* attributes the spec was compiled from, sorted by
+     *                     {@link #sort}
+     * @param stringValues the dimensions and fractions as written in the layout and as
+     *                     TypedValue.coerceToString prints them, null pairs for the other values
+     * @param values       the TypedValue type and data pairs aapt stores for them
+     * @return whether the child has exactly these cl* attributes with these values
+     */
+    public static boolean matches(AttributeSet attrs, int[] attrIds, String[] stringValues,
+                                  int[] values) {
+      int matched = 0;
+      for (int i = 0; i < attrs.getAttributeCount(); i++) {
+        int attr = attrs.getAttributeNameResource(i);
+        int index = Arrays.binarySearch(attrIds, attr);
+        if (index < 0) {
+          // aapt sorts the styleable arrays by id
+          if (Arrays.binarySearch(R.styleable.CollapseLayout_LayoutParams, attr) >= 0) {
+            // a cl* attribute the spec wasn't compiled from
+            return false;
+          }
+          continue;
         }
+        if (!matchesValue(attrs, i, values[index * 2], values[index * 2 + 1],
+            stringValues[index * 2], stringValues[index * 2 + 1])) {
+          return false;
+        }
+        matched++;
       }
+      return matched == attrIds.length;
+    }
 
-      if (!canResetBorder) {
-        top = child.getTop();
-        left = child.getLeft();
-        right = child.getRight();
-        bottom = child.getBottom();
+    private static boolean matchesValue(AttributeSet attrs, int i, int type, int data,
+                                        String raw, String coerced) {
+      // the typed getters return the default for a value of another type
+      if (type == TypedValue.TYPE_REFERENCE) {
+        return attrs.getAttributeResourceValue(i, 0) == data;
       }
+      if (type == TypedValue.TYPE_FLOAT) {
+        // a compiled float is never NaN
+        return Float.floatToIntBits(attrs.getAttributeFloatValue(i, Float.NaN)) == data;
+      }
+      if (type >= TypedValue.TYPE_FIRST_INT && type <= TypedValue.TYPE_LAST_INT) {
+        return attrs.getAttributeIntValue(i, ~data) == data;
+      }
+      // no typed getter for dimensions and fractions, the raw value comes from the string pool
+      String value = attrs.getAttributeValue(i);
+      return value != null && (value.equals(raw) || value.equals(coerced));
+    }
 
-      width = child.getWidth();
-      height = child.getHeight();
-      alpha = ViewCompat.getAlpha(child);
-      scaleX = ViewCompat.getScaleX(child);
-      scaleY = ViewCompat.getScaleY(child);
+    private static void swap(int[] array, int i, int j) {
+      int value = array[i];
+      array[i] = array[j];
+      array[j] = value;
+    }
 
-      if (child instanceof TextView) {
-        TextView textView = (TextView) child;
-        textSize = textView.getTextSize();
-        int color = textView.getTextColors().getDefaultColor();
-        textColor =
-            new int[]{Color.alpha(color), Color.red(color), Color.green(color), Color.blue(color)};
-      }
+    private static void swap(String[] array, int i, int j) {
+      String value = array[i];
+      array[i] = array[j];
+      array[j] = value;
     }
   }
 
-  private class AnimRunnable implements Runnable {
-    private long duration;
-    private int totalDistance;
-    protected long preTime;
-    private int action;
-    private boolean isAnimating = false;
+  /**
+   * receive the time a CollapseRelativeBar spent in each frame
+   */
+  public interface CollapseMetrics {
+    /**
+     * @param bar     the CollapseRelativeBar
+     * @param metrics the metrics of the frame, reused by the next frame, copy the values out if
+     *                you keep them
+     */
+    void onFrameMetrics(CollapseRelativeBar bar, FrameMetrics metrics);
+  }
 
-    public static final int COLLAPSE_ACTION = 0;
-    public static final int EXPAND_ACTION = 1;
+  /**
+   * the time a CollapseRelativeBar spent in a frame, in nanoseconds
+   */
+  public static class FrameMetrics {
+    static final int NO_SECTION = -1;
+    static final int SECTION_TRANSITION = 0;
+    static final int SECTION_HANDLER = 1;
+    static final int SECTION_MEASURE = 2;
+    static final int SECTION_LAYOUT = 3;
+    static final int SECTION_DRAW = 4;
+    static final int SECTION_ANIM = 5;
+    static final int SECTION_COUNT = 6;
+
+    private final long[] sectionNanos = new long[SECTION_COUNT];
+    private int requestLayoutCount;
 
-    protected int getCurrentFragmentDistance() {
-      return (int) (totalDistance * ((float) (AnimationUtils.currentAnimationTimeMillis() - preTime) / duration));
+    /**
+     * the time of the child transitions, including the CollapseHandler and
+     * OnCollapseProgressListener dispatch
+     */
+    public long getTransitionNanos() {
+      return sectionNanos[SECTION_TRANSITION];
     }
 
-    @Override
-    public void run() {
-      doTranslation(
-          action == COLLAPSE_ACTION ? getCurrentFragmentDistance() : -getCurrentFragmentDistance());
-      updatePreTime();
-      if (action == COLLAPSE_ACTION ? !isCollapsed() : !isExpanded()) {
-        post(this);
-      } else {
-        isAnimating = false;
-      }
+    /**
+     * the time spent in CollapseHandler callbacks
+     */
+    public long getHandlerNanos() {
+      return sectionNanos[SECTION_HANDLER];
     }
 
-    public void start(long duration, int totalDistance, long startTime, int action) {
-      this.duration = duration;
-      this.totalDistance = totalDistance;
-      this.action = action;
-      if (action != COLLAPSE_ACTION && action != EXPAND_ACTION) {
-        throw new IllegalArgumentException("no this action:" + action);
-      }
-      preTime = startTime;
-      isAnimating = true;
-      postDelayed(this, AnimationUtils.currentAnimationTimeMillis() - startTime);
+    public long getMeasureNanos() {
+      return sectionNanos[SECTION_MEASURE];
     }
 
-    public void stop() {
-      removeCallbacks(this);
-      isAnimating = false;
+    /**
+     * the time of onLayout, both the RelativeLayout pass and the snapshot replay
+     */
+    public long getLayoutNanos() {
+      return sectionNanos[SECTION_LAYOUT];
     }
 
-    public boolean isAnimating() {
-      return isAnimating;
+    /**
+     * the time of drawing the children and their scrims
+     */
+    public long getDrawNanos() {
+      return sectionNanos[SECTION_DRAW];
+    }
+
+    /**
+     * the time of the auto expand or collapse anim and fling steps, including the transition
+     * they drive
+     */
+    public long getAnimNanos() {
+      return sectionNanos[SECTION_ANIM];
+    }
+
+    /**
+     * the requestLayout() calls reaching the bar, from itself or its children
+     */
+    public int getRequestLayoutCount() {
+      return requestLayoutCount;
     }
 
-    protected void updatePreTime() {
-      preTime = AnimationUtils.currentAnimationTimeMillis();
+    private void reset() {
+      Arrays.fill(sectionNanos, 0);
+      requestLayoutCount = 0;
     }
   }
 
@@ -831,11 +3274,51 @@ public class CollapseRelativeBar extends RelativeLayout {
     void afterCollapseTransition(CollapseRelativeBar parent, View child, float percent);
   }
 
+  /**
+   * OnCollapseProgressListener
+   *
+   * listen the bar collapse progress once per frame, without child level callbacks
+   */
+  public interface OnCollapseProgressListener {
+    /**
+     * @param percent   the progress of CollapseRelativeBar collapsing
+     * @param barHeight the visible height of CollapseRelativeBar
+     */
+    void onCollapseProgress(float percent, int barHeight);
+  }
+
   /**
    * author: zhou date: 2016/3/3.
    */
   public static class CollapseBehavior
       extends CoordinatorLayout.Behavior<CollapseRelativeBar> {
+    private ScrollTrace trace;
+
+    /**
+     * record the nested scroll callbacks reaching the bar into the trace, until
+     * {@link #stopRecording()}. Write the trace out by {@link ScrollTrace#writeTo} once stopped,
+     * then it can be replayed by {@link ScrollTraceReplayer}
+     *
+     * @param trace the trace to append to
+     */
+    public void startRecording(ScrollTrace trace) {
+      this.trace = trace;
+    }
+
+    /**
+     * @return the recorded trace, null if not recording
+     */
+    public ScrollTrace stopRecording() {
+      ScrollTrace trace = this.trace;
+      this.trace = null;
+      return trace;
+    }
+
+    private void record(int type, int value) {
+      if (trace != null) {
+        trace.add(type, System.nanoTime(), value);
+      }
+    }
 
     @Override
     public boolean onStartNestedScroll(CoordinatorLayout coordinatorLayout,
@@ -844,11 +3327,20 @@ public class CollapseRelativeBar extends RelativeLayout {
       return nestedScrollAxes == ViewCompat.SCROLL_AXIS_VERTICAL;
     }
 
+    @Override
+    public void onNestedScrollAccepted(CoordinatorLayout coordinatorLayout,
+                                       CollapseRelativeBar child, View directTargetChild,
+                                       View target, int nestedScrollAxes) {
+      record(ScrollTrace.EVENT_START, 0);
+      child.onStartNestedScroll();
+    }
+
     @Override
     public void onNestedPreScroll(CoordinatorLayout coordinatorLayout,
                                   CollapseRelativeBar child,
                                   View target,
                                   int dx, int dy, int[] consumed) {
+      record(ScrollTrace.EVENT_PRE_SCROLL, dy);
       if (!child.isCollapsed()) {
         consumed[1] = child.onTranslation(dy);
       }
@@ -858,6 +3350,7 @@ public class CollapseRelativeBar extends RelativeLayout {
     public void onNestedScroll(CoordinatorLayout coordinatorLayout, CollapseRelativeBar child,
                                View target,
                                int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed) {
+      record(ScrollTrace.EVENT_SCROLL, dyUnconsumed);
       if (dyUnconsumed != 0) {
         child.onTranslation(dyUnconsumed);
       }
@@ -867,6 +3360,7 @@ public class CollapseRelativeBar extends RelativeLayout {
     public void onStopNestedScroll(CoordinatorLayout coordinatorLayout,
                                    CollapseRelativeBar child,
                                    View target) {
+      record(ScrollTrace.EVENT_STOP, 0);
       child.onStopNestedScroll();
     }
 
@@ -874,25 +3368,138 @@ public class CollapseRelativeBar extends RelativeLayout {
     public boolean onNestedPreFling(CoordinatorLayout coordinatorLayout,
                                     CollapseRelativeBar child, View target,
                                     float velocityX, float velocityY) {
-      return !child.isCollapsed();
+      if (trace != null) {
+        trace.addFling(System.nanoTime(), velocityY);
+      }
+      return child.onPreFling(target, velocityY);
+    }
+
+    @Override
+    public boolean onLayoutChild(CoordinatorLayout parent, CollapseRelativeBar child,
+                                 int layoutDirection) {
+      child.updateStatusBarScrimHost(parent);
+      return false;
+    }
+
+    @Override
+    public WindowInsetsCompat onApplyWindowInsets(CoordinatorLayout coordinatorLayout,
+                                                  CollapseRelativeBar child,
+                                                  WindowInsetsCompat insets) {
+      // asked instead of the bar when both the bar and the CoordinatorLayout fit system windows
+      return child.applyWindowInsets(insets);
+    }
+  }
+
+  /**
+   * feed a recorded {@link ScrollTrace} into a CollapseRelativeBar through a CollapseBehavior, so
+   * versions of the bar can be compared on the same input
+   */
+  public static class ScrollTraceReplayer {
+    private final CollapseBehavior behavior = new CollapseBehavior();
+    private final int[] consumed = new int[2];
+
+    /**
+     * replay on the calling thread, at the recorded speed it sleeps between the events, so
+     * don't call it with realTime on the main thread
+     *
+     * @param trace    the recorded trace
+     * @param bar      the bar to replay into
+     * @param target   the scrolling view the events come from
+     * @param realTime wait for the recorded time of every event, or replay as fast as possible
+     * @return the nanoseconds the bar spent in each event, only filled up to the interruption if
+     * the thread is interrupted while waiting
+     */
+    public long[] replay(ScrollTrace trace, CollapseRelativeBar bar, View target,
+                         boolean realTime) {
+      long[] eventNanos = new long[trace.size()];
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < trace.size(); i++) {
+        if (realTime && !waitUntil(startNanos + trace.getTimeNanos(i) - trace.getTimeNanos(0))) {
+          break;
+        }
+        long start = System.nanoTime();
+        dispatch(trace, i, bar, target);
+        eventNanos[i] = System.nanoTime() - start;
+      }
+      return eventNanos;
+    }
+
+    private void dispatch(ScrollTrace trace, int index, CollapseRelativeBar bar, View target) {
+      switch (trace.getType(index)) {
+        case ScrollTrace.EVENT_START:
+          behavior.onNestedScrollAccepted(null, bar, target, target,
+              ViewCompat.SCROLL_AXIS_VERTICAL);
+          break;
+        case ScrollTrace.EVENT_PRE_SCROLL:
+          consumed[1] = 0;
+          behavior.onNestedPreScroll(null, bar, target, 0, trace.getValue(index), consumed);
+          break;
+        case ScrollTrace.EVENT_SCROLL:
+          behavior.onNestedScroll(null, bar, target, 0, 0, 0, trace.getValue(index));
+          break;
+        case ScrollTrace.EVENT_PRE_FLING:
+          behavior.onNestedPreFling(null, bar, target, 0, trace.getVelocity(index));
+          break;
+        case ScrollTrace.EVENT_STOP:
+          behavior.onStopNestedScroll(null, bar, target);
+          break;
+      }
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private static boolean waitUntil(long timeNanos) {
+      long waitNanos = timeNanos - System.nanoTime();
+      if (waitNanos <= 0) {
+        return true;
+      }
+      try {
+        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
     }
   }
 
   public static class ScrollViewBehavior extends CoordinatorLayout.Behavior<View> {
     private CollapseRelativeBar dependParent;
+    private int layoutTop;
 
     public ScrollViewBehavior(Context context, AttributeSet attributeSet) {
       super(context, attributeSet);
     }
 
+    @Override
+    public boolean onMeasureChild(CoordinatorLayout parent, View child,
+                                  int parentWidthMeasureSpec, int widthUsed,
+                                  int parentHeightMeasureSpec, int heightUsed) {
+      if (dependParent == null || dependParent.scrollingLayout != SCROLLING_LAYOUT_OFFSET) {
+        return false;
+      }
+      // measure once at the height below the collapsed bar, the tallest the child can show,
+      // the parent padding is already excluded by the parent
+      int collapsedBottom = dependParent.getTop() + dependParent.COLLAPSED_HEIGHT;
+      parent.onMeasureChild(child, parentWidthMeasureSpec, widthUsed, parentHeightMeasureSpec,
+          heightUsed + Math.max(0, collapsedBottom - parent.getPaddingTop()));
+      return true;
+    }
+
     @Override
     public boolean onLayoutChild(CoordinatorLayout parent, View child, int layoutDirection) {
+      if (dependParent != null && dependParent.scrollingLayout == SCROLLING_LAYOUT_OFFSET) {
+        layoutChildBelowBar(parent, child);
+        return true;
+      }
       if (dependParent != null) {
         if (!dependParent.isCollapsed()) {
           parent.onLayoutChild(child, layoutDirection);
-          ViewCompat.offsetTopAndBottom(child, dependParent.getHeight());
+          layoutTop = child.getTop();
+          ViewCompat.offsetTopAndBottom(child, dependParent.getVisibleHeight());
         } else {
-          if (child.getTop() != dependParent.getBottom()) {
+          if (child.getTop() != dependParent.getVisibleBottom()) {
             ViewCompat.offsetTopAndBottom(child, 0);
             ViewGroup.LayoutParams layoutParams = child.getLayoutParams();
             MarginLayoutParams marginLayoutParams = null;
@@ -902,7 +3509,7 @@ public class CollapseRelativeBar extends RelativeLayout {
               marginLayoutParams = new MarginLayoutParams(layoutParams);
             }
             child.layout(parent.getLeft() + marginLayoutParams.leftMargin,
-                dependParent.getBottom() + marginLayoutParams.topMargin,
+                dependParent.getVisibleBottom() + marginLayoutParams.topMargin,
                 parent.getRight() - marginLayoutParams.rightMargin,
                 parent.getBottom() - marginLayoutParams.bottomMargin);
           }
@@ -911,14 +3518,64 @@ public class CollapseRelativeBar extends RelativeLayout {
       return true;
     }
 
+    /**
+     * lay the child out below the bar only when its size changes or it asks for a layout,
+     * otherwise just move it
+     */
+    private void layoutChildBelowBar(CoordinatorLayout parent, View child) {
+      int top = dependParent.getVisibleBottom() + getTopMargin(child);
+      if (child.isLayoutRequested() || child.getWidth() != child.getMeasuredWidth()
+          || child.getHeight() != child.getMeasuredHeight()) {
+        int left = parent.getPaddingLeft();
+        if (child.getLayoutParams() instanceof MarginLayoutParams) {
+          left += ((MarginLayoutParams) child.getLayoutParams()).leftMargin;
+        }
+        child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+      } else if (child.getTop() != top) {
+        ViewCompat.offsetTopAndBottom(child, top - child.getTop());
+      }
+    }
+
+    private int getTopMargin(View child) {
+      if (child.getLayoutParams() instanceof MarginLayoutParams) {
+        return ((MarginLayoutParams) child.getLayoutParams()).topMargin;
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean onDependentViewChanged(CoordinatorLayout parent, View child,
+                                          View dependency) {
+      if (dependency == dependParent && dependParent.scrollingLayout == SCROLLING_LAYOUT_OFFSET) {
+        int offset = dependParent.getVisibleBottom() + getTopMargin(child) - child.getTop();
+        if (offset != 0) {
+          ViewCompat.offsetTopAndBottom(child, offset);
+          return true;
+        }
+        return false;
+      }
+      // the bar with COLLAPSE_STRATEGY_CLIP doesn't relayout, just follow its visible height
+      if (dependency == dependParent
+          && dependParent.getCollapseStrategy() == COLLAPSE_STRATEGY_CLIP
+          && !dependParent.isCollapsed()) {
+        int offset = layoutTop + dependParent.getVisibleHeight() - child.getTop();
+        if (offset != 0) {
+          ViewCompat.offsetTopAndBottom(child, offset);
+          return true;
+        }
+      }
+      return false;
+    }
+
     @Override
     public boolean layoutDependsOn(CoordinatorLayout parent, View child, View dependency) {
-      boolean isDepend = false;
-      if (dependParent == null && dependency instanceof CollapseRelativeBar) {
+      // CoordinatorLayout asks on every sort and before every dependent view dispatch, so
+      // answer every time, and follow the bar if it was replaced
+      if (dependency instanceof CollapseRelativeBar) {
         dependParent = (CollapseRelativeBar) dependency;
-        isDepend = true;
+        return true;
       }
-      return isDepend;
+      return false;
     }
   }
 }
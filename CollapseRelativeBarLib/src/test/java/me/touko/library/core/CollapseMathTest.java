@@ -0,0 +1,89 @@
+package me.touko.library.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CollapseMathTest {
+  private static final float DELTA = 0.0001f;
+
+  @Test
+  public void clampHeightKeepsTheBarBetweenItsBounds() {
+    assertEquals(100, CollapseMath.clampHeight(40, 100, 600));
+    assertEquals(600, CollapseMath.clampHeight(640, 100, 600));
+    assertEquals(350, CollapseMath.clampHeight(350, 100, 600));
+  }
+
+  @Test
+  public void collapsePercentGoesFromExpandedToCollapsed() {
+    assertEquals(0f, CollapseMath.getCollapsePercent(600, 100, 600), DELTA);
+    assertEquals(0.5f, CollapseMath.getCollapsePercent(350, 100, 600), DELTA);
+    assertEquals(1f, CollapseMath.getCollapsePercent(100, 100, 600), DELTA);
+  }
+
+  @Test
+  public void colorIsInterpolatedPerChannel() {
+    assertEquals(0xff808080,
+        CollapseMath.getColorBetweenTwoValue(0xff000000, 0xffffffff, 128f / 255));
+    assertEquals(0x00ffffff, CollapseMath.getColorBetweenTwoValue(0xffffffff, 0x00ffffff, 1f));
+  }
+
+  @Test
+  public void modeTranslationYMovesTheChildToItsCollapsedTop() {
+    // centered in a 100px bar
+    assertEquals(-275f, CollapseMath.getModeTranslationY(CollapseMath.MODE_PIN, 300, 50, 1f,
+        100, 0), DELTA);
+    // above the top edge, half of the scaled size change included
+    assertEquals(-375f, CollapseMath.getModeTranslationY(CollapseMath.MODE_OUT, 300, 50, 2f,
+        100, 0), DELTA);
+    assertEquals(0f, CollapseMath.getModeTranslationY(CollapseMath.MODE_NONE, 300, 50, 1f,
+        100, 0), DELTA);
+  }
+
+  @Test
+  public void marginTranslationXMovesTheChildToItsCollapsedMargin() {
+    assertEquals(-90, CollapseMath.getMarginLeftTranslationX(100, 200, 1f, 10, 0));
+    assertEquals(70, CollapseMath.getMarginRightTranslationX(800, 200, 1f, 10, 1080, 200));
+  }
+
+  @Test
+  public void transformedBoundsOutsideTheBarAreCulled() {
+    // a 50px child at 20 moved out of the top edge
+    float top = CollapseMath.getTransformedStart(20, -70, 25, 1f);
+    assertEquals(-50f, top, DELTA);
+    assertTrue(CollapseMath.isOutside(top, 50, 100));
+    // scaled to half around its center, it still reaches into the bar
+    top = CollapseMath.getTransformedStart(20, -50, 25, 0.5f);
+    assertEquals(-17.5f, top, DELTA);
+    assertFalse(CollapseMath.isOutside(top, 25, 100));
+    // below the visible height, and mirrored
+    assertTrue(CollapseMath.isOutside(100, 50, 100));
+    assertFalse(CollapseMath.isOutside(40, -50, 100));
+  }
+
+  @Test
+  public void transitionOpsSkipChangesUnderThreshold() {
+    TransitionOps ops = new TransitionOps();
+    ops.add(TransitionOps.OP_TRANSLATION_Y, 0, -100, 0.5f);
+
+    assertTrue(ops.update(0, 0.5f, false));
+    assertEquals(-50f, ops.getValue(0), DELTA);
+    assertFalse(ops.update(0, 0.504f, false));
+    assertTrue(ops.update(0, 0.51f, false));
+    // the exact end value is always pushed
+    assertTrue(ops.update(0, 0.512f, true));
+    assertFalse(ops.update(0, 0.512f, true));
+  }
+
+  @Test
+  public void transitionOpsTruncateSizes() {
+    TransitionOps ops = new TransitionOps();
+    ops.add(TransitionOps.OP_WIDTH, 200, 100, 0);
+
+    assertTrue(ops.update(0, 0.333f, false));
+    assertEquals(166f, ops.getValue(0), DELTA);
+    assertFalse(ops.update(0, 0.334f, false));
+  }
+}
@@ -0,0 +1,83 @@
+package me.touko.library.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScrollDirectionTrackerTest {
+  private static final float DELTA = 0.01f;
+
+  @Test
+  public void jitterDoesNotReverseTheDirection() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(8, 100, 500f, 24);
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(10, 0));
+    long time = 16;
+    for (int i = 0; i < 20; i++, time += 16) {
+      tracker.addDelta(i % 2 == 0 ? -4 : 3, time);
+    }
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.getDirection());
+  }
+
+  @Test
+  public void fastReversalReversesTheDirection() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(8, 100, 500f, 24);
+    tracker.addDelta(30, 0);
+    tracker.addDelta(30, 16);
+    // a small step back is still part of the forward scroll
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-4, 32));
+    // 30px back in a frame
+    assertEquals(ScrollDirectionTracker.DIRECTION_NEGATIVE, tracker.addDelta(-30, 148));
+  }
+
+  @Test
+  public void slowReversalPastTheSlopReversesTheDirection() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(8, 100, 500f, 24);
+    tracker.addDelta(30, 0);
+    // 5px back every 50ms, 100px per second, under the reverse velocity
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-5, 200));
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-5, 250));
+    // the forward delta in between takes 3px off the 24px moved back
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(3, 260));
+    assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-16, 300));
+    assertEquals(ScrollDirectionTracker.DIRECTION_NEGATIVE, tracker.addDelta(-1, 310));
+  }
+
+  @Test
+  public void sustainedReversalReversesTheDirection() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(8, 100, 500f, 24);
+    tracker.addDelta(30, 0);
+    // 1px back a frame, far under the slop and the reverse velocity
+    long time = 200;
+    for (int i = 0; i < 7; i++, time += 16) {
+      assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-1, time));
+    }
+    // every delta went back for the whole window
+    assertEquals(ScrollDirectionTracker.DIRECTION_NEGATIVE, tracker.addDelta(-1, time));
+  }
+
+  @Test
+  public void forwardDeltaRestartsTheSustainedReversal() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(8, 100, 500f, 24);
+    tracker.addDelta(30, 0);
+    long time = 200;
+    for (int i = 0; i < 6; i++, time += 16) {
+      tracker.addDelta(-1, time);
+    }
+    tracker.addDelta(1, time);
+    time += 16;
+    for (int i = 0; i < 6; i++, time += 16) {
+      assertEquals(ScrollDirectionTracker.DIRECTION_POSITIVE, tracker.addDelta(-1, time));
+    }
+  }
+
+  @Test
+  public void velocityOnlyCountsTheWindow() {
+    ScrollDirectionTracker tracker = new ScrollDirectionTracker(4, 100, 500f, 24);
+    tracker.addDelta(100, 0);
+    tracker.addDelta(10, 150);
+    tracker.addDelta(10, 166);
+
+    assertEquals(20 * 1000f / 16, tracker.getVelocity(166), DELTA);
+    assertEquals(0f, tracker.getVelocity(400), DELTA);
+  }
+}
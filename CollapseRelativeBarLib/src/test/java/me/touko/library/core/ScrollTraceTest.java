@@ -0,0 +1,74 @@
+package me.touko.library.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScrollTraceTest {
+  private static final long FRAME_NANOS = 16666667;
+
+  @Test
+  public void traceSurvivesTheBinaryForm() throws Exception {
+    ScrollTrace trace = new ScrollTrace(2);
+    long time = 123456789000L;
+    trace.add(ScrollTrace.EVENT_START, time, 0);
+    trace.add(ScrollTrace.EVENT_PRE_SCROLL, time += FRAME_NANOS, 24);
+    trace.add(ScrollTrace.EVENT_SCROLL, time, -3);
+    trace.add(ScrollTrace.EVENT_PRE_SCROLL, time += FRAME_NANOS, Integer.MIN_VALUE);
+    trace.addFling(time += FRAME_NANOS, -4200.5f);
+    trace.add(ScrollTrace.EVENT_STOP, time, 0);
+
+    ScrollTrace read = ScrollTrace.readFrom(new ByteArrayInputStream(toBytes(trace)));
+
+    assertEquals(trace.size(), read.size());
+    for (int i = 0; i < trace.size(); i++) {
+      assertEquals(trace.getType(i), read.getType(i));
+      // microseconds relative to the first event
+      assertEquals((trace.getTimeNanos(i) - trace.getTimeNanos(0)) / 1000,
+          read.getTimeNanos(i) / 1000);
+    }
+    assertEquals(24, read.getValue(1));
+    assertEquals(-3, read.getValue(2));
+    assertEquals(Integer.MIN_VALUE, read.getValue(3));
+    assertEquals(-4200.5f, read.getVelocity(4), 0f);
+  }
+
+  @Test
+  public void scrollEventsTakeAFewBytes() throws Exception {
+    ScrollTrace trace = new ScrollTrace();
+    for (int i = 0; i < 1000; i++) {
+      trace.add(ScrollTrace.EVENT_PRE_SCROLL, i * FRAME_NANOS, i % 2 == 0 ? 12 : -12);
+    }
+    // type, 16667us and a zigzag delta
+    assertTrue(toBytes(trace).length <= 1000 * 5 + 16);
+  }
+
+  @Test
+  public void brokenStreamsAreRejected() throws Exception {
+    try {
+      ScrollTrace.readFrom(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+      fail();
+    } catch (IOException expected) {
+    }
+    ScrollTrace trace = new ScrollTrace();
+    trace.add(ScrollTrace.EVENT_PRE_SCROLL, 0, 300);
+    byte[] bytes = toBytes(trace);
+    try {
+      ScrollTrace.readFrom(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  private static byte[] toBytes(ScrollTrace trace) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    trace.writeTo(out);
+    return out.toByteArray();
+  }
+}
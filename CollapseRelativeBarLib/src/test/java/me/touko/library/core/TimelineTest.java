@@ -0,0 +1,40 @@
+package me.touko.library.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimelineTest {
+  private static final float DELTA = 0.0001f;
+
+  @Test
+  public void progressIsLerpedBetweenSamples() {
+    Timeline timeline = new Timeline(new float[]{0f, 0.5f, 0.6f, 1f});
+
+    assertEquals(0f, timeline.getProgress(-1f), DELTA);
+    assertEquals(0.25f, timeline.getProgress(1f / 6), DELTA);
+    assertEquals(0.6f, timeline.getProgress(2f / 3), DELTA);
+    assertEquals(1f, timeline.getProgress(1f), DELTA);
+    assertEquals(1f, timeline.getProgress(2f), DELTA);
+  }
+
+  @Test
+  public void rangeProgressHoldsOutsideOfTheKeyframes() {
+    // fade out by 40%
+    assertEquals(0.5f, Timeline.getRangeProgress(0.2f, 0f, 0.4f), DELTA);
+    assertEquals(1f, Timeline.getRangeProgress(0.7f, 0f, 0.4f), DELTA);
+    // move between 40% and 100%
+    assertEquals(0f, Timeline.getRangeProgress(0.2f, 0.4f, 1f), DELTA);
+    assertEquals(0.5f, Timeline.getRangeProgress(0.7f, 0.4f, 1f), DELTA);
+  }
+
+  @Test
+  public void samplesAreEvenlySpaced() {
+    int sampleCount = Timeline.getSampleCount(256);
+
+    assertEquals(257, sampleCount);
+    assertEquals(0f, Timeline.getSamplePercent(0, sampleCount), DELTA);
+    assertEquals(0.5f, Timeline.getSamplePercent(128, sampleCount), DELTA);
+    assertEquals(1f, Timeline.getSamplePercent(256, sampleCount), DELTA);
+  }
+}
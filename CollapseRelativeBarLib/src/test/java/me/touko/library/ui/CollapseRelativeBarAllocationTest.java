@@ -0,0 +1,75 @@
+package me.touko.library.ui;
+
+import android.view.View;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * a steady scroll of the bar must not allocate, or GC pauses come back during header collapse
+ */
+public class CollapseRelativeBarAllocationTest {
+  private static final int CHILD_COUNT = 20;
+  private static final int WARM_UP_FRAMES = 20000;
+  private static final int FRAMES = 10000;
+  private static final int SCROLL_DELTA = 7;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private int direction = 1;
+  private int directionChanges;
+
+  @Test
+  public void steadyScrollDoesNotAllocate() throws Exception {
+    FakeCollapseRelativeBar bar =
+        new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(), CHILD_COUNT);
+    bar.addCollapseHandler(new CollapseRelativeBar.CollapseHandler() {
+      @Override
+      public boolean onCollapseTransition(CollapseRelativeBar parent, View child, float percent) {
+        return false;
+      }
+
+      @Override
+      public void afterCollapseTransition(CollapseRelativeBar parent, View child, float percent) {
+      }
+    });
+    bar.layoutOnce();
+
+    scroll(bar, WARM_UP_FRAMES);
+    long overhead = allocatedBytes();
+    overhead = allocatedBytes() - overhead;
+    directionChanges = 0;
+
+    long start = allocatedBytes();
+    scroll(bar, FRAMES);
+    long allocated = allocatedBytes() - start - overhead;
+
+    assertTrue("bar didn't scroll between its bounds", directionChanges > 0);
+    assertTrue("allocated " + allocated + " bytes in " + FRAMES + " frames", allocated < FRAMES);
+  }
+
+  private void scroll(CollapseRelativeBar bar, int frames) {
+    for (int i = 0; i < frames; i++) {
+      if (direction > 0 && bar.isCollapsed() || direction < 0 && bar.isExpanded()) {
+        direction = -direction;
+        directionChanges++;
+      }
+      int dy = direction * SCROLL_DELTA;
+      if (dy > 0) {
+        behavior.onNestedPreScroll(null, bar, null, 0, dy, consumed);
+      } else {
+        // the scrolling sibling is at its top, the unconsumed delta expands the bar
+        behavior.onNestedScroll(null, bar, null, 0, 0, 0, dy);
+      }
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
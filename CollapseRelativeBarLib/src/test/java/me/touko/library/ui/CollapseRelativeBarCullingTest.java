@@ -0,0 +1,130 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * a child faded out by the collapse isn't drawn and is hidden from accessibility, while its
+ * scrim is still drawn over where it is
+ */
+public class CollapseRelativeBarCullingTest {
+  private static final int DELTA = 50;
+  private static final int MAX_FRAMES = 100;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private final Canvas canvas = mock(Canvas.class);
+  private final Drawable scrim = mock(Drawable.class);
+  private FakeCollapseRelativeBar bar;
+  private FakeCollapseRelativeBar.FakeTextView child;
+
+  @Before
+  public void setUp() {
+    when(scrim.mutate()).thenReturn(scrim);
+    Context context = FakeCollapseRelativeBar.mockContext();
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clAlpha, 0f);
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clScrim, scrim);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams)))
+        .thenReturn(FakeCollapseRelativeBar.mockTypedArray(childValues));
+    bar = new FakeCollapseRelativeBar(context, 1);
+    child = (FakeCollapseRelativeBar.FakeTextView) bar.getChildAt(0);
+    ViewGroup.LayoutParams params = child.getLayoutParams();
+    params.width = 200;
+    params.height = 50;
+    child.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_YES);
+    bar.layoutOnce();
+  }
+
+  @Test
+  public void expandedChildIsDrawn() {
+    bar.drawFrame();
+    bar.drawChild(canvas, child, 0);
+
+    assertTrue(bar.drawnChildren.contains(child));
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_YES, child.getImportantForAccessibility());
+  }
+
+  @Test
+  public void culledChildIsNotDrawnButItsScrimIs() {
+    collapse();
+    bar.drawChild(canvas, child, 0);
+
+    assertFalse(bar.drawnChildren.contains(child));
+    verify(scrim).draw(canvas);
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS,
+        child.getImportantForAccessibility());
+  }
+
+  @Test
+  public void visibleAgainChildRestoresItsImportance() {
+    collapse();
+    scroll(-DELTA);
+    reset(scrim);
+    bar.drawChild(canvas, child, 0);
+
+    assertFalse(bar.isCollapsed());
+    assertTrue(bar.drawnChildren.contains(child));
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_YES, child.getImportantForAccessibility());
+
+    for (int i = 0; i < MAX_FRAMES && !bar.isExpanded(); i++) {
+      scroll(-DELTA);
+    }
+    assertTrue(bar.isExpanded());
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_YES, child.getImportantForAccessibility());
+  }
+
+  @Test
+  public void expandedScrimIsNotDrawn() {
+    bar.drawFrame();
+    bar.drawChild(canvas, child, 0);
+
+    verify(scrim, never()).draw(canvas);
+  }
+
+  private void collapse() {
+    for (int i = 0; i < MAX_FRAMES && !bar.isCollapsed(); i++) {
+      scroll(DELTA);
+    }
+    assertTrue(bar.isCollapsed());
+  }
+
+  /**
+   * the bar consumes the collapsing deltas before the scrolling view, and expands by the ones
+   * the scrolling view at its top left
+   */
+  private void scroll(int dy) {
+    if (dy > 0) {
+      behavior.onNestedPreScroll(null, bar, null, 0, dy, consumed);
+    } else {
+      behavior.onNestedScroll(null, bar, null, 0, 0, 0, dy);
+    }
+    bar.measureAndLayout();
+    bar.drawFrame();
+  }
+}
@@ -0,0 +1,73 @@
+package me.touko.library.ui;
+
+import android.view.View;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * a detached bar is put back expanded for the origin state capture of the next attach, which
+ * isn't a transition the app should hear about
+ */
+public class CollapseRelativeBarDetachTest {
+  private static final int CHILD_COUNT = 3;
+  private static final int SCROLL_DISTANCE = 200;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final CollapseRelativeBar.CollapseHandler handler =
+      mock(CollapseRelativeBar.CollapseHandler.class);
+  private final CollapseRelativeBar.OnCollapseProgressListener listener =
+      mock(CollapseRelativeBar.OnCollapseProgressListener.class);
+
+  @Test
+  public void detachRestoresTheBarWithoutDispatching() {
+    FakeCollapseRelativeBar bar = collapsedBar();
+    bar.onDetachedFromWindow();
+
+    verifyZeroInteractions(handler, listener);
+    assertEquals(FakeCollapseRelativeBar.EXPANDED_HEIGHT, bar.getVisibleHeight());
+
+    // collapsed back through the handlers and listeners once reattached
+    bar.layoutOnce();
+    assertEquals(FakeCollapseRelativeBar.EXPANDED_HEIGHT - SCROLL_DISTANCE,
+        bar.getVisibleHeight());
+    verify(handler, atLeastOnce()).onCollapseTransition(eq(bar), any(View.class), anyFloat());
+    verify(listener).onCollapseProgress(anyFloat(),
+        eq(FakeCollapseRelativeBar.EXPANDED_HEIGHT - SCROLL_DISTANCE));
+  }
+
+  @Test
+  public void expandedBarIsLeftAloneOnDetach() {
+    FakeCollapseRelativeBar bar = collapsedBar();
+    bar.setExpanded(true, false);
+    reset(handler, listener);
+    bar.onDetachedFromWindow();
+    bar.layoutOnce();
+
+    assertEquals(FakeCollapseRelativeBar.EXPANDED_HEIGHT, bar.getVisibleHeight());
+    verify(listener, never()).onCollapseProgress(anyFloat(), anyInt());
+  }
+
+  private FakeCollapseRelativeBar collapsedBar() {
+    FakeCollapseRelativeBar bar =
+        new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(), CHILD_COUNT);
+    bar.addCollapseHandler(handler);
+    bar.addOnCollapseProgressListener(listener);
+    bar.layoutOnce();
+    behavior.onNestedPreScroll(null, bar, null, 0, SCROLL_DISTANCE, new int[2]);
+    reset(handler, listener);
+    return bar;
+  }
+}
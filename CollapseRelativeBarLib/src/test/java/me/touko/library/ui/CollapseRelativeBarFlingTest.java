@@ -0,0 +1,145 @@
+package me.touko.library.ui;
+
+import android.support.v4.widget.NestedScrollView;
+import android.support.v4.widget.ScrollerCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * the nested fling drives the bar frame by frame through a scroller which slows down by a fixed
+ * factor every frame
+ */
+public class CollapseRelativeBarFlingTest {
+  private static final long FRAME_MILLIS = 16;
+  private static final int MAX_FRAMES = 200;
+  private static final float DECAY = 0.8f;
+  private static final float MIN_VELOCITY = 100f;
+  // 128px in the first frame, 640px in all, more than the 500px the bar collapses by
+  private static final float FAST_VELOCITY = 8000f;
+  // 160px in all
+  private static final float SLOW_VELOCITY = 2000f;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final NestedScrollView target = mock(NestedScrollView.class);
+  private FakeCollapseRelativeBar bar;
+  private float velocity;
+  private float y;
+  private boolean finished = true;
+
+  @Before
+  public void setUp() {
+    bar = new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(), 1);
+    bar.flingScroller = mockScroller();
+    bar.layoutOnce();
+    when(target.computeVerticalScrollRange()).thenReturn(2000);
+    when(target.computeVerticalScrollExtent()).thenReturn(500);
+  }
+
+  @Test
+  public void collapsingFlingHandsTheLeftVelocityToTheSibling() {
+    assertTrue(behavior.onNestedPreFling(null, bar, target, 0, FAST_VELOCITY));
+    runFrames();
+
+    assertTrue(bar.isCollapsed());
+    ArgumentCaptor<Integer> leftVelocity = ArgumentCaptor.forClass(Integer.class);
+    verify(target).fling(leftVelocity.capture());
+    assertTrue(leftVelocity.getValue() > 0);
+    assertTrue(leftVelocity.getValue() < FAST_VELOCITY);
+  }
+
+  @Test
+  public void expandingFlingIsLeftToTheSiblingBelowItsTop() {
+    bar.setExpanded(false, false);
+    when(target.computeVerticalScrollOffset()).thenReturn(300);
+    assertFalse(behavior.onNestedPreFling(null, bar, target, 0, -FAST_VELOCITY));
+    runFrames();
+    assertTrue(bar.isCollapsed());
+
+    when(target.computeVerticalScrollOffset()).thenReturn(0);
+    assertTrue(behavior.onNestedPreFling(null, bar, target, 0, -FAST_VELOCITY));
+    runFrames();
+    assertTrue(bar.isExpanded());
+    // the sibling is at its top already
+    verify(target, never()).fling(anyInt());
+  }
+
+  @Test
+  public void flingEndingHalfwaySettlesTheBar() {
+    bar.setExpanded(false, false);
+    assertTrue(behavior.onNestedPreFling(null, bar, target, 0, -SLOW_VELOCITY));
+    // the scroller runs out before the bar is expanded, the end of the fling stops the nested
+    // scroll it was holding back
+    runFrames();
+
+    assertTrue(bar.isExpanded());
+  }
+
+  @Test
+  public void nestedScrollStoppedDuringTheFlingIsLeftToTheFling() {
+    assertTrue(behavior.onNestedPreFling(null, bar, target, 0, FAST_VELOCITY));
+    behavior.onStopNestedScroll(null, bar, target);
+    runFrames();
+
+    assertTrue(bar.isCollapsed());
+    verify(target).fling(anyInt());
+  }
+
+  private void runFrames() {
+    for (int i = 0; i < MAX_FRAMES; i++) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      bar.dispatchPendingFrame(bar.animationTimeMillis);
+    }
+  }
+
+  /**
+   * a scroller whose velocity drops by {@link #DECAY} every frame until it's below
+   * {@link #MIN_VELOCITY}
+   */
+  private ScrollerCompat mockScroller() {
+    return mock(ScrollerCompat.class, new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        switch (invocation.getMethod().getName()) {
+          case "fling":
+            velocity = (Integer) invocation.getArguments()[3];
+            y = 0;
+            finished = false;
+            return null;
+          case "computeScrollOffset":
+            if (finished || Math.abs(velocity) < MIN_VELOCITY) {
+              finished = true;
+              return false;
+            }
+            y += velocity * FRAME_MILLIS / 1000;
+            velocity *= DECAY;
+            return true;
+          case "getCurrY":
+            return (int) y;
+          case "getCurrVelocity":
+            return Math.abs(velocity);
+          case "isFinished":
+            return finished;
+          case "abortAnimation":
+            finished = true;
+            return null;
+          default:
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,318 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * the layout requests, invalidates and child property sets per frame of the bar and its
+ * scrolling sibling in each mode, an extra requestLayout() or invalidate() on the scroll path
+ * fails here instead of showing up as jank.
+ * <p>
+ * the CoordinatorLayout is a mock, its measure and layout passes are the ones this harness runs
+ * when the bar asked for a layout, so the budget is on the requests, not on the passes
+ */
+public class CollapseRelativeBarFrameBudgetTest {
+  private static final int CHILD_COUNT = 10;
+  private static final long FRAME_MILLIS = 16;
+  private static final int SCROLL_DELTA = 9;
+  // a coalesced bar gets more scroll events than frames, like a 120hz touch panel
+  private static final int COALESCED_EVENTS_PER_FRAME = 3;
+  private static final int MAX_SETTLE_FRAMES = 100;
+  private static final int STATUS_BAR_HEIGHT = 60;
+
+  // the budgets of a frame, the clip strategy requests no layout while scrolling, see
+  // FrameBudget.getMaxRequestLayouts()
+  private static final int MAX_REQUEST_LAYOUTS = 1;
+  private static final int MAX_INVALIDATES = 1;
+  // the fake children transition their alpha and the pin translation
+  private static final int MAX_CHILD_PROPERTIES = CHILD_COUNT * 2;
+  private static final int MAX_SIBLING_LAYOUTS = 1;
+  private static final int MAX_SIBLING_OFFSETS = 1;
+
+  private static final int[] COLLAPSE_STRATEGIES = {
+      CollapseRelativeBar.COLLAPSE_STRATEGY_HEIGHT, CollapseRelativeBar.COLLAPSE_STRATEGY_CLIP};
+  private static final int[] SCROLLING_LAYOUTS = {
+      CollapseRelativeBar.SCROLLING_LAYOUT_RELAYOUT, CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET};
+
+  private CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  // a fresh pair per case, a behavior holds on to the bar it depends on
+  private CollapseRelativeBar.ScrollViewBehavior siblingBehavior;
+  private final int[] consumed = new int[2];
+  private final FrameBudget budget = new FrameBudget();
+  private CoordinatorLayout coordinator;
+  private FakeCollapseRelativeBar bar;
+  private FakeScrollingView sibling;
+  private long frameTime;
+
+  @Test
+  public void everyModeStaysInTheFrameBudget() {
+    for (int collapseStrategy : COLLAPSE_STRATEGIES) {
+      for (int scrollingLayout : SCROLLING_LAYOUTS) {
+        for (boolean coalesce : new boolean[]{false, true}) {
+          setUp(collapseStrategy, scrollingLayout, coalesce);
+          dragAndSettle(coalesce ? COALESCED_EVENTS_PER_FRAME : 1);
+          assertTrue(budget.mode + " didn't collapse", budget.collapsed);
+          assertTrue(budget.mode + " didn't settle", bar.isExpanded());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void clipStrategyOnlyRequestsALayoutOnceCollapsed() {
+    for (int scrollingLayout : SCROLLING_LAYOUTS) {
+      setUp(CollapseRelativeBar.COLLAPSE_STRATEGY_CLIP, scrollingLayout, false);
+      dragAndSettle(1);
+      // a relaid out sibling gets its height once fully collapsed, an offset one already has it
+      int expected = scrollingLayout == CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET ? 0 : 1;
+      assertEquals(budget.mode, expected, budget.requestLayoutFrames);
+      assertTrue(budget.mode, budget.frames > 50);
+    }
+  }
+
+  @Test
+  public void heightStrategyRequestsALayoutEveryFrame() {
+    setUp(CollapseRelativeBar.COLLAPSE_STRATEGY_HEIGHT,
+        CollapseRelativeBar.SCROLLING_LAYOUT_RELAYOUT, false);
+    dragAndSettle(1);
+    // the frame after the bar settled doesn't move it
+    assertEquals(budget.mode, budget.frames - 1, budget.requestLayoutFrames);
+  }
+
+  @Test
+  public void offsetScrollingLayoutNeverRelayoutsTheSibling() {
+    for (int collapseStrategy : COLLAPSE_STRATEGIES) {
+      setUp(collapseStrategy, CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET, false);
+      dragAndSettle(1);
+      assertEquals(budget.mode, 0, sibling.layoutCount);
+    }
+  }
+
+  @Test
+  public void statusBarScrimOnlyRedrawsWhenItsAlphaChanges() {
+    Drawable scrim = mock(Drawable.class);
+    when(scrim.mutate()).thenReturn(scrim);
+    Map<Integer, Object> barValues = new HashMap<>();
+    barValues.put(R.styleable.CollapseRelativeBar_clStatusBarScrim, scrim);
+    bar = new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(barValues),
+        CHILD_COUNT);
+    bar.layoutOnce();
+    Rect insets = new Rect();
+    insets.top = STATUS_BAR_HEIGHT;
+    bar.fitSystemWindows(insets);
+    bar.invalidateRectCount = 0;
+
+    int range = FakeCollapseRelativeBar.EXPANDED_HEIGHT - FakeCollapseRelativeBar.COLLAPSED_HEIGHT;
+    for (int i = 0; i < range; i++) {
+      behavior.onNestedPreScroll(null, bar, null, 0, 1, consumed);
+      bar.drawFrame();
+    }
+
+    // 500 frames, but only 255 alpha steps, the scrim starts transparent
+    assertTrue(bar.isCollapsed());
+    assertEquals(255, bar.invalidateRectCount);
+    verify(scrim, times(256)).setAlpha(anyInt());
+    verify(scrim, atLeastOnce()).draw(any(Canvas.class));
+  }
+
+  private void setUp(int collapseStrategy, int scrollingLayout, boolean coalesce) {
+    Context context = FakeCollapseRelativeBar.mockContext(collapseStrategy);
+    bar = new FakeCollapseRelativeBar(context, CHILD_COUNT);
+    bar.setScrollingLayout(scrollingLayout);
+    bar.setCoalesceScrollEnabled(coalesce);
+    bar.layoutOnce();
+    sibling = new FakeScrollingView(context);
+    coordinator = mock(CoordinatorLayout.class, sibling);
+    behavior = new CollapseRelativeBar.CollapseBehavior();
+    siblingBehavior = new CollapseRelativeBar.ScrollViewBehavior(null, null);
+    // the dependency sort
+    assertTrue(siblingBehavior.layoutDependsOn(coordinator, sibling, bar));
+
+    budget.mode = "strategy " + collapseStrategy + ", scrolling layout " + scrollingLayout
+        + (coalesce ? ", coalesced" : "");
+    budget.collapseStrategy = collapseStrategy;
+    budget.scrollingLayout = scrollingLayout;
+    budget.frames = 0;
+    budget.requestLayoutFrames = 0;
+    budget.collapsed = false;
+    budget.siblingLayoutCount = 0;
+    bar.setMetricsListener(null);
+    // the first frame lays the tree out, it's not a scroll frame
+    frame();
+    bar.setMetricsListener(budget);
+    sibling.layoutCount = 0;
+    budget.invalidateCount = bar.invalidateCount;
+    budget.childPropertyCount = bar.getChildPropertyCount();
+    budget.wasCollapsed = false;
+  }
+
+  /**
+   * collapse the bar in a drag, drag it back by a third, then let it settle expanded
+   */
+  private void dragAndSettle(int eventsPerFrame) {
+    behavior.onNestedScrollAccepted(coordinator, bar, sibling, sibling,
+        ViewCompat.SCROLL_AXIS_VERTICAL);
+    while (!bar.isCollapsed()) {
+      for (int i = 0; i < eventsPerFrame; i++) {
+        behavior.onNestedPreScroll(coordinator, bar, sibling, 0, SCROLL_DELTA, consumed);
+      }
+      frame();
+    }
+    budget.collapsed = true;
+    int expandDistance = (FakeCollapseRelativeBar.EXPANDED_HEIGHT
+        - FakeCollapseRelativeBar.COLLAPSED_HEIGHT) / 3;
+    for (int distance = 0; distance < expandDistance; ) {
+      for (int i = 0; i < eventsPerFrame; i++, distance += SCROLL_DELTA) {
+        // the scrolling sibling is at its top, the unconsumed delta expands the bar
+        behavior.onNestedScroll(coordinator, bar, sibling, 0, 0, 0, -SCROLL_DELTA);
+      }
+      frame();
+    }
+    behavior.onStopNestedScroll(coordinator, bar, sibling);
+    for (int i = 0; i < MAX_SETTLE_FRAMES && !bar.isExpanded(); i++) {
+      frame();
+    }
+    // the frame after the bar settled
+    frame();
+  }
+
+  /**
+   * a frame of the CoordinatorLayout, the frame callbacks, then the measure and layout pass if
+   * requested, then the dependent view changes dispatched before drawing, only to a behavior
+   * which still depends on the bar
+   */
+  private void frame() {
+    frameTime += FRAME_MILLIS;
+    sibling.offsetCount = 0;
+    bar.dispatchPendingFrame(frameTime);
+    if (bar.isLayoutRequested()) {
+      bar.measureAndLayout();
+      siblingBehavior.onLayoutChild(coordinator, sibling, ViewCompat.LAYOUT_DIRECTION_LTR);
+    }
+    if (siblingBehavior.layoutDependsOn(coordinator, sibling, bar)) {
+      siblingBehavior.onDependentViewChanged(coordinator, sibling, bar);
+    }
+    bar.drawFrame();
+  }
+
+  private class FrameBudget implements CollapseRelativeBar.CollapseMetrics {
+    private String mode;
+    private int collapseStrategy;
+    private int scrollingLayout;
+    private int frames;
+    // the frames in which the bar requested a layout
+    private int requestLayoutFrames;
+    private boolean collapsed;
+    private boolean wasCollapsed;
+    private int siblingLayoutCount;
+    private int invalidateCount;
+    private int childPropertyCount;
+
+    @Override
+    public void onFrameMetrics(CollapseRelativeBar bar,
+                               CollapseRelativeBar.FrameMetrics metrics) {
+      String frame = mode + ", frame " + frames;
+      FakeCollapseRelativeBar fakeBar = (FakeCollapseRelativeBar) bar;
+      assertTrue(frame + " requestLayout " + metrics.getRequestLayoutCount(),
+          metrics.getRequestLayoutCount() <= getMaxRequestLayouts(fakeBar));
+      int invalidates = fakeBar.invalidateCount - invalidateCount;
+      assertTrue(frame + " invalidate " + invalidates, invalidates <= MAX_INVALIDATES);
+      int childProperties = fakeBar.getChildPropertyCount() - childPropertyCount;
+      assertTrue(frame + " child properties " + childProperties,
+          childProperties <= MAX_CHILD_PROPERTIES);
+      invalidateCount = fakeBar.invalidateCount;
+      childPropertyCount = fakeBar.getChildPropertyCount();
+      wasCollapsed = fakeBar.isCollapsed();
+      int siblingLayouts = sibling.layoutCount - siblingLayoutCount;
+      assertTrue(frame + " sibling layout " + siblingLayouts,
+          siblingLayouts <= MAX_SIBLING_LAYOUTS);
+      assertTrue(frame + " sibling offset " + sibling.offsetCount,
+          sibling.offsetCount <= MAX_SIBLING_OFFSETS);
+      siblingLayoutCount = sibling.layoutCount;
+      if (metrics.getRequestLayoutCount() > 0) {
+        requestLayoutFrames++;
+      }
+      frames++;
+    }
+
+    /**
+     * the clip strategy moves the sibling without a layout, a relaid out sibling only gets one
+     * in the frame the bar becomes fully collapsed
+     */
+    private int getMaxRequestLayouts(FakeCollapseRelativeBar bar) {
+      if (collapseStrategy != CollapseRelativeBar.COLLAPSE_STRATEGY_CLIP) {
+        return MAX_REQUEST_LAYOUTS;
+      }
+      if (scrollingLayout == CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET) {
+        return 0;
+      }
+      return bar.isCollapsed() && !wasCollapsed ? MAX_REQUEST_LAYOUTS : 0;
+    }
+  }
+
+  /**
+   * the scrolling sibling, also answering the CoordinatorLayout mock, which lays it out when its
+   * behavior doesn't
+   */
+  private static class FakeScrollingView extends View implements Answer<Object> {
+    private int layoutCount;
+    private int offsetCount;
+    private int top;
+
+    public FakeScrollingView(Context context) {
+      super(context);
+    }
+
+    @Override
+    public void layout(int l, int t, int r, int b) {
+      layoutCount++;
+      top = t;
+    }
+
+    /**
+     * getTop() is final and always 0 on the mockable android.jar, so the offset a behavior
+     * computes is the new top, only the ones which move the view count
+     */
+    @Override
+    public void offsetTopAndBottom(int offset) {
+      if (offset != 0 && offset != top) {
+        top = offset;
+        offsetCount++;
+      }
+    }
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      if (invocation.getMethod().getName().equals("onLayoutChild")) {
+        layoutCount++;
+      }
+      return RETURNS_DEFAULTS.answer(invocation);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package me.touko.library.ui;
+
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.view.WindowInsetsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * the status bar scrim and the collapsed height with the insets going through a CoordinatorLayout
+ * which fits system windows
+ */
+public class CollapseRelativeBarInsetsTest {
+  private static final int STATUS_BAR_HEIGHT = 60;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final CoordinatorLayout coordinator = mock(CoordinatorLayout.class);
+  private final int[] consumed = new int[2];
+  private Drawable scrim;
+  private FakeCollapseRelativeBar bar;
+  private Drawable statusBarBackground;
+
+  @Before
+  public void setUp() {
+    when(coordinator.getFitsSystemWindows()).thenReturn(true);
+    // the mock keeps the status bar background like the CoordinatorLayout does
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        statusBarBackground = (Drawable) invocation.getArguments()[0];
+        return null;
+      }
+    }).when(coordinator).setStatusBarBackground(any(Drawable.class));
+    when(coordinator.getStatusBarBackground()).thenAnswer(new Answer<Drawable>() {
+      @Override
+      public Drawable answer(InvocationOnMock invocation) {
+        return statusBarBackground;
+      }
+    });
+    scrim = mock(Drawable.class);
+    when(scrim.mutate()).thenReturn(scrim);
+    bar = createBar(false);
+  }
+
+  private FakeCollapseRelativeBar createBar(boolean scrimOnParent) {
+    Map<Integer, Object> barValues = new HashMap<>();
+    barValues.put(R.styleable.CollapseRelativeBar_clStatusBarScrim, scrim);
+    barValues.put(R.styleable.CollapseRelativeBar_clStatusBarScrimOnParent, scrimOnParent);
+    return new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(barValues), 1);
+  }
+
+  @Test
+  public void fittingParentIsLeftAloneByDefault() {
+    bar.layoutOnce();
+    behavior.onLayoutChild(coordinator, bar, 0);
+    verify(coordinator, never()).setStatusBarBackground(any(Drawable.class));
+  }
+
+  @Test
+  public void fittingParentDrawsTheScrimAsItsStatusBarBackground() {
+    bar = createBar(true);
+    Drawable background = mock(Drawable.class);
+    statusBarBackground = background;
+    bar.layoutOnce();
+    // the insets are consumed by the CoordinatorLayout, it only lays the bar out
+    behavior.onLayoutChild(coordinator, bar, 0);
+    behavior.onLayoutChild(coordinator, bar, 0);
+    verify(coordinator).setStatusBarBackground(any(LayerDrawable.class));
+
+    collapse();
+    verify(coordinator, times(255)).invalidate(anyInt(), anyInt(), anyInt(), anyInt());
+    assertEquals(0, bar.invalidateRectCount);
+    verify(scrim, never()).draw(any(Canvas.class));
+
+    bar.onDetachedFromWindow();
+    assertSame(background, statusBarBackground);
+  }
+
+  @Test
+  public void backgroundSetByTheAppIsKept() {
+    bar = createBar(true);
+    bar.layoutOnce();
+    behavior.onLayoutChild(coordinator, bar, 0);
+    assertSame(scrim, statusBarBackground);
+
+    Drawable background = mock(Drawable.class);
+    coordinator.setStatusBarBackground(background);
+    // the next layout puts the scrim over the new background
+    behavior.onLayoutChild(coordinator, bar, 0);
+    assertTrue(statusBarBackground instanceof LayerDrawable);
+
+    Drawable appBackground = mock(Drawable.class);
+    coordinator.setStatusBarBackground(appBackground);
+    bar.onDetachedFromWindow();
+    assertSame(appBackground, statusBarBackground);
+  }
+
+  @Test
+  public void disablingTheParentScrimRestoresTheBackground() {
+    bar = createBar(true);
+    bar.layoutOnce();
+    behavior.onLayoutChild(coordinator, bar, 0);
+    assertSame(scrim, statusBarBackground);
+
+    bar.setStatusBarScrimOnParent(false);
+    assertNull(statusBarBackground);
+    behavior.onLayoutChild(coordinator, bar, 0);
+    assertNull(statusBarBackground);
+  }
+
+  @Test
+  public void fittingBarCollapsesBelowTheStatusBar() {
+    bar.fitsSystemWindows = true;
+    WindowInsetsCompat insets = mock(WindowInsetsCompat.class);
+    when(insets.getSystemWindowInsetTop()).thenReturn(STATUS_BAR_HEIGHT);
+    // the CoordinatorLayout asks the behavior of a child which fits system windows too
+    behavior.onApplyWindowInsets(coordinator, bar, insets);
+    bar.layoutOnce();
+    behavior.onLayoutChild(coordinator, bar, 0);
+    verify(coordinator, never()).setStatusBarBackground(any(Drawable.class));
+
+    collapse();
+    assertEquals(FakeCollapseRelativeBar.COLLAPSED_HEIGHT + STATUS_BAR_HEIGHT,
+        bar.getVisibleHeight());
+    verify(scrim, atLeastOnce()).draw(any(Canvas.class));
+    verify(scrim, atLeastOnce()).setBounds(eq(0), eq(0), anyInt(), eq(STATUS_BAR_HEIGHT));
+  }
+
+  private void collapse() {
+    while (!bar.isCollapsed()) {
+      behavior.onNestedPreScroll(coordinator, bar, null, 0, 1, consumed);
+      bar.drawFrame();
+    }
+    assertTrue(bar.isCollapsed());
+  }
+}
@@ -0,0 +1,109 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.support.v4.view.ViewCompat;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.when;
+
+/**
+ * with clUseLayer auto the children which only change their view properties are on a hardware
+ * layer while the bar moves, and back off it once the bar is idle
+ */
+public class CollapseRelativeBarLayerTest {
+  private static final long FRAME_MILLIS = 16;
+  private static final int MAX_SETTLE_FRAMES = 100;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private FakeCollapseRelativeBar bar;
+  private View child;
+
+  @Test
+  public void childIsOnALayerWhileTheBarMoves() {
+    createBar(CollapseRelativeBar.USE_LAYER_AUTO, false);
+
+    startScroll();
+    assertEquals(View.LAYER_TYPE_HARDWARE, child.getLayerType());
+    // 10% of the range, past the settle threshold
+    behavior.onNestedPreScroll(null, bar, null, 0, 50, consumed);
+    assertEquals(View.LAYER_TYPE_HARDWARE, child.getLayerType());
+
+    // the slow release settles the bar, the layer stays until the settle anim ends
+    bar.animationTimeMillis += 200;
+    behavior.onStopNestedScroll(null, bar, null);
+    assertEquals(View.LAYER_TYPE_HARDWARE, child.getLayerType());
+    settle();
+    assertTrue(bar.isCollapsed());
+    assertEquals(View.LAYER_TYPE_NONE, child.getLayerType());
+  }
+
+  @Test
+  public void childWithALayerTypeIsLeftAlone() {
+    createBar(CollapseRelativeBar.USE_LAYER_AUTO, false);
+    child.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+
+    startScroll();
+    assertEquals(View.LAYER_TYPE_SOFTWARE, child.getLayerType());
+    behavior.onStopNestedScroll(null, bar, null);
+    settle();
+    assertEquals(View.LAYER_TYPE_SOFTWARE, child.getLayerType());
+  }
+
+  @Test
+  public void childRedrawingItsTextIsNotPromoted() {
+    createBar(CollapseRelativeBar.USE_LAYER_AUTO, true);
+
+    startScroll();
+    assertEquals(View.LAYER_TYPE_NONE, child.getLayerType());
+  }
+
+  @Test
+  public void childIsNotPromotedByDefault() {
+    createBar(CollapseRelativeBar.USE_LAYER_NONE, false);
+
+    startScroll();
+    assertEquals(View.LAYER_TYPE_NONE, child.getLayerType());
+  }
+
+  private void createBar(int useLayer, boolean textColor) {
+    Map<Integer, Object> barValues = new HashMap<>();
+    barValues.put(R.styleable.CollapseRelativeBar_clUseLayer, useLayer);
+    Context context = FakeCollapseRelativeBar.mockContext(barValues);
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clAlpha, 0.5f);
+    if (textColor) {
+      childValues.put(R.styleable.CollapseLayout_LayoutParams_clTextColor, 0xffffffff);
+    }
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams)))
+        .thenReturn(FakeCollapseRelativeBar.mockTypedArray(childValues));
+    bar = new FakeCollapseRelativeBar(context, 1);
+    child = bar.getChildAt(0);
+    bar.layoutOnce();
+  }
+
+  private void startScroll() {
+    behavior.onNestedScrollAccepted(null, bar, null, null, ViewCompat.SCROLL_AXIS_VERTICAL);
+  }
+
+  private void settle() {
+    for (int i = 0; i < MAX_SETTLE_FRAMES; i++) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      bar.dispatchPendingFrame(bar.animationTimeMillis);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package me.touko.library.ui;
+
+import android.support.v4.view.ViewCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * where the bar settles when the nested scroll stops, a fast release follows its velocity, a
+ * slow one only leaves the edge it came from past a threshold
+ */
+public class CollapseRelativeBarSettleTest {
+  private static final long FRAME_MILLIS = 16;
+  private static final int MAX_SETTLE_FRAMES = 100;
+  // 16px, less than the 5% of the 500px range a slow drag has to move the bar by
+  private static final int SCROLL_DELTA = 8;
+  private static final int DELTA_COUNT = 2;
+  private static final int FAST_DELTA = 50;
+  private static final int SLOW_DELTA = 5;
+  private static final int THRESHOLD_DISTANCE =
+      (FakeCollapseRelativeBar.EXPANDED_HEIGHT - FakeCollapseRelativeBar.COLLAPSED_HEIGHT) / 20;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private FakeCollapseRelativeBar bar;
+
+  @Before
+  public void setUp() {
+    bar = new FakeCollapseRelativeBar(FakeCollapseRelativeBar.mockContext(), 1);
+    bar.layoutOnce();
+  }
+
+  @Test
+  public void fastDragReleasedBelowTheThresholdCollapses() {
+    drag(SCROLL_DELTA);
+    assertTrue(FakeCollapseRelativeBar.EXPANDED_HEIGHT - bar.getVisibleHeight()
+        < THRESHOLD_DISTANCE);
+    behavior.onStopNestedScroll(null, bar, null);
+    settle();
+
+    assertTrue(bar.isCollapsed());
+  }
+
+  @Test
+  public void fastDragBackReleasedBelowTheThresholdExpands() {
+    bar.setExpanded(false, false);
+    drag(-SCROLL_DELTA);
+    assertTrue(bar.getVisibleHeight() - FakeCollapseRelativeBar.COLLAPSED_HEIGHT
+        < THRESHOLD_DISTANCE);
+    behavior.onStopNestedScroll(null, bar, null);
+    settle();
+
+    assertTrue(bar.isExpanded());
+  }
+
+  @Test
+  public void heldDragFallsBackToTheThreshold() {
+    drag(SCROLL_DELTA);
+    int height = bar.getVisibleHeight();
+    // held still before the release, the recent deltas are out of the velocity window
+    bar.animationTimeMillis += 200;
+    behavior.onStopNestedScroll(null, bar, null);
+    settle();
+
+    assertEquals(height, bar.getVisibleHeight());
+  }
+
+  @Test
+  public void slowReversalReleasedPastTheThresholdExpands() {
+    behavior.onNestedScrollAccepted(null, bar, null, null, ViewCompat.SCROLL_AXIS_VERTICAL);
+    while (!bar.isCollapsed()) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      behavior.onNestedPreScroll(null, bar, null, 0, FAST_DELTA, consumed);
+    }
+    // pulled back to 30% collapsed at about 300px per second
+    int targetHeight = FakeCollapseRelativeBar.EXPANDED_HEIGHT
+        - (FakeCollapseRelativeBar.EXPANDED_HEIGHT - FakeCollapseRelativeBar.COLLAPSED_HEIGHT)
+        * 3 / 10;
+    while (bar.getVisibleHeight() < targetHeight) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      behavior.onNestedScroll(null, bar, null, 0, 0, 0, -SLOW_DELTA);
+    }
+    behavior.onStopNestedScroll(null, bar, null);
+    settle();
+
+    assertTrue(bar.isExpanded());
+  }
+
+  /**
+   * a few deltas, one a frame, the bar consumes the collapsing ones before the scrolling view,
+   * and expands by the ones the scrolling view at its top left
+   */
+  private void drag(int delta) {
+    behavior.onNestedScrollAccepted(null, bar, null, null, ViewCompat.SCROLL_AXIS_VERTICAL);
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      if (delta > 0) {
+        behavior.onNestedPreScroll(null, bar, null, 0, delta, consumed);
+      } else {
+        behavior.onNestedScroll(null, bar, null, 0, 0, 0, delta);
+      }
+    }
+  }
+
+  private void settle() {
+    for (int i = 0; i < MAX_SETTLE_FRAMES; i++) {
+      bar.animationTimeMillis += FRAME_MILLIS;
+      bar.dispatchPendingFrame(bar.animationTimeMillis);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.when;
+
+/**
+ * a clTextSize child is scaled while collapsing and gets the collapsed text size only once fully
+ * collapsed, leaving the collapsed state has to undo the commit exactly
+ */
+public class CollapseRelativeBarTextSizeTest {
+  private static final float COLLAPSED_TEXT_SIZE = 20f;
+  private static final int DELTA = 50;
+  private static final int MAX_FRAMES = 100;
+  // the offset is added and taken back in floats
+  private static final float EPSILON = 1e-3f;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private FakeCollapseRelativeBar bar;
+  private FakeCollapseRelativeBar.FakeTextView child;
+
+  @Before
+  public void setUp() {
+    bar = createBar();
+    child = (FakeCollapseRelativeBar.FakeTextView) bar.getChildAt(0);
+  }
+
+  private FakeCollapseRelativeBar createBar() {
+    Context context = FakeCollapseRelativeBar.mockContext();
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clTextSize, COLLAPSED_TEXT_SIZE);
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clMarginLeft, 30);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams)))
+        .thenReturn(FakeCollapseRelativeBar.mockTypedArray(childValues));
+    FakeCollapseRelativeBar bar = new FakeCollapseRelativeBar(context, 1);
+    bar.layoutOnce();
+    return bar;
+  }
+
+  @Test
+  public void collapsedTextSizeReplacesTheTextScale() {
+    collapse();
+
+    assertEquals(COLLAPSED_TEXT_SIZE, child.textSize, 0f);
+    assertEquals(1f, child.getScaleX(), 0f);
+    assertEquals(1f, child.getScaleY(), 0f);
+  }
+
+  @Test
+  public void recollapsingLandsOnTheSameEndValues() {
+    collapse();
+    float translationX = child.getTranslationX();
+    float translationY = child.getTranslationY();
+
+    scroll(bar, -4 * DELTA);
+    assertTrue(!bar.isCollapsed() && !bar.isExpanded());
+    // the origin text size is back, and the child is where a bar which never collapsed puts it
+    FakeCollapseRelativeBar other = createBar();
+    while (other.getVisibleHeight() > bar.getVisibleHeight()) {
+      scroll(other, DELTA);
+    }
+    assertEquals(bar.getVisibleHeight(), other.getVisibleHeight());
+    View otherChild = other.getChildAt(0);
+    assertEquals(FakeCollapseRelativeBar.FakeTextView.TEXT_SIZE, child.textSize, 0f);
+    assertEquals(otherChild.getScaleX(), child.getScaleX(), EPSILON);
+    assertEquals(otherChild.getScaleY(), child.getScaleY(), EPSILON);
+    assertEquals(otherChild.getTranslationX(), child.getTranslationX(), EPSILON);
+    assertEquals(otherChild.getTranslationY(), child.getTranslationY(), EPSILON);
+
+    collapse();
+    assertEquals(COLLAPSED_TEXT_SIZE, child.textSize, 0f);
+    assertEquals(1f, child.getScaleX(), 0f);
+    assertEquals(1f, child.getScaleY(), 0f);
+    assertEquals(translationX, child.getTranslationX(), 0f);
+    assertEquals(translationY, child.getTranslationY(), 0f);
+  }
+
+  @Test
+  public void expandingLeavesNoTextSizeOffset() {
+    collapse();
+    scroll(bar, -4 * DELTA);
+    collapse();
+
+    for (int i = 0; i < MAX_FRAMES && !bar.isExpanded(); i++) {
+      scroll(bar, -DELTA);
+    }
+    assertTrue(bar.isExpanded());
+    assertEquals(FakeCollapseRelativeBar.FakeTextView.TEXT_SIZE, child.textSize, 0f);
+    assertEquals(1f, child.getScaleX(), 0f);
+    assertEquals(1f, child.getScaleY(), 0f);
+    assertEquals(0f, child.getTranslationX(), 0f);
+    assertEquals(0f, child.getTranslationY(), 0f);
+  }
+
+  private void collapse() {
+    for (int i = 0; i < MAX_FRAMES && !bar.isCollapsed(); i++) {
+      scroll(bar, DELTA);
+    }
+    assertTrue(bar.isCollapsed());
+  }
+
+  /**
+   * the bar consumes the collapsing deltas before the scrolling view, and expands by the ones
+   * the scrolling view at its top left
+   */
+  private void scroll(FakeCollapseRelativeBar bar, int dy) {
+    if (dy > 0) {
+      behavior.onNestedPreScroll(null, bar, null, 0, dy, consumed);
+    } else {
+      behavior.onNestedScroll(null, bar, null, 0, 0, 0, dy);
+    }
+    bar.measureAndLayout();
+    bar.drawFrame();
+  }
+}
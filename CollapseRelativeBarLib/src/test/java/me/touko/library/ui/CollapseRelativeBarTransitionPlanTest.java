@@ -0,0 +1,79 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * the transition plans are only rebuilt when a child origin or LayoutParams changed, a rebuilt
+ * plan shows as the child scrim getting its alpha again
+ */
+public class CollapseRelativeBarTransitionPlanTest {
+  private final Drawable scrim = mock(Drawable.class);
+  private final int[] consumed = new int[2];
+  private FakeCollapseRelativeBar bar;
+
+  @Before
+  public void setUp() {
+    when(scrim.mutate()).thenReturn(scrim);
+    Context context = FakeCollapseRelativeBar.mockContext();
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clAlpha, 0.5f);
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clScrim, scrim);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams)))
+        .thenReturn(FakeCollapseRelativeBar.mockTypedArray(childValues));
+    bar = new FakeCollapseRelativeBar(context, 1);
+    bar.layoutOnce();
+    bar.drawFrame();
+  }
+
+  @Test
+  public void unchangedRelayoutKeepsThePlans() {
+    bar.measureAndLayout();
+    bar.drawFrame();
+
+    verify(scrim, times(1)).setAlpha(anyInt());
+  }
+
+  @Test
+  public void changedLayoutParamsRebuildThePlans() {
+    bar.getChildAt(0).getLayoutParams().width = 100;
+    bar.measureAndLayout();
+    bar.drawFrame();
+
+    verify(scrim, times(2)).setAlpha(0);
+  }
+
+  @Test
+  public void dirtyPlansWaitForTheNextTransition() {
+    View child = bar.getChildAt(0);
+    CollapseRelativeBar.CollapseHandler handler = mock(CollapseRelativeBar.CollapseHandler.class);
+    bar.addCollapseHandler(child, handler);
+    bar.drawFrame();
+    verify(scrim, times(1)).setAlpha(anyInt());
+
+    // the next transition picks the handler up
+    new CollapseRelativeBar.CollapseBehavior().onNestedPreScroll(null, bar, null, 0, 10, consumed);
+    verify(handler, atLeastOnce()).onCollapseTransition(same(bar), same(child), anyFloat());
+  }
+}
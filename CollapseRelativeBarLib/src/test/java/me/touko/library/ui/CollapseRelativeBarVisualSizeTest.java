@@ -0,0 +1,115 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.when;
+
+/**
+ * a visual clWidth child keeps its expanded LayoutParams and is clipped in between, the
+ * collapsed size is only laid out once fully collapsed
+ */
+public class CollapseRelativeBarVisualSizeTest {
+  private static final int WIDTH = 200;
+  private static final int HEIGHT = 50;
+  private static final int COLLAPSED_WIDTH = 100;
+  private static final int DELTA = 50;
+  private static final int MAX_FRAMES = 100;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final int[] consumed = new int[2];
+  private FakeCollapseRelativeBar bar;
+  private FakeCollapseRelativeBar.FakeTextView child;
+  private ViewGroup.LayoutParams params;
+
+  @Before
+  public void setUp() {
+    Context context = FakeCollapseRelativeBar.mockContext();
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clWidth, COLLAPSED_WIDTH);
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clSizeMode,
+        CollapseRelativeBar.SIZE_MODE_VISUAL);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams)))
+        .thenReturn(FakeCollapseRelativeBar.mockTypedArray(childValues));
+    bar = new FakeCollapseRelativeBar(context, 1);
+    bar.clipChildren = true;
+    child = (FakeCollapseRelativeBar.FakeTextView) bar.getChildAt(0);
+    params = child.getLayoutParams();
+    params.width = WIDTH;
+    params.height = HEIGHT;
+    bar.layoutOnce();
+  }
+
+  @Test
+  public void partlyCollapsedChildIsClipped() {
+    scroll(DELTA * 4);
+
+    assertTrue(!bar.isCollapsed() && !bar.isExpanded());
+    assertEquals(WIDTH, params.width);
+    assertNotNull(child.clipBounds);
+  }
+
+  @Test
+  public void collapsedSizeIsLaidOutOnceCollapsed() {
+    collapse();
+
+    assertEquals(COLLAPSED_WIDTH, params.width);
+    assertEquals(HEIGHT, params.height);
+    assertNull(child.clipBounds);
+  }
+
+  @Test
+  public void leavingCollapsedRestoresTheExpandedLayoutParams() {
+    collapse();
+    scroll(-DELTA);
+
+    assertTrue(!bar.isCollapsed());
+    assertEquals(WIDTH, params.width);
+    assertNotNull(child.clipBounds);
+
+    for (int i = 0; i < MAX_FRAMES && !bar.isExpanded(); i++) {
+      scroll(-DELTA);
+    }
+    assertTrue(bar.isExpanded());
+    assertEquals(WIDTH, params.width);
+    assertNull(child.clipBounds);
+  }
+
+  private void collapse() {
+    for (int i = 0; i < MAX_FRAMES && !bar.isCollapsed(); i++) {
+      scroll(DELTA);
+    }
+    assertTrue(bar.isCollapsed());
+  }
+
+  /**
+   * the bar consumes the collapsing deltas before the scrolling view, and expands by the ones
+   * the scrolling view at its top left
+   */
+  private void scroll(int dy) {
+    if (dy > 0) {
+      behavior.onNestedPreScroll(null, bar, null, 0, dy, consumed);
+    } else {
+      behavior.onNestedScroll(null, bar, null, 0, 0, 0, dy);
+    }
+    bar.measureAndLayout();
+    bar.drawFrame();
+  }
+}
@@ -0,0 +1,164 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+
+import me.touko.library.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+
+public class CollapseSpecTest {
+  private static final int TITLE_COLOR = 0x7f0c0001;
+
+  @Test
+  public void inflatedEqualSpecsAreShared() {
+    Context context = FakeCollapseRelativeBar.mockContext();
+    CollapseRelativeBar.LayoutParams first = new CollapseRelativeBar.LayoutParams(context, null);
+    CollapseRelativeBar.LayoutParams second = new CollapseRelativeBar.LayoutParams(context, null);
+
+    assertSame(first.getCollapseSpec(), second.getCollapseSpec());
+  }
+
+  @Test
+  public void builderStartsFromAnExistingSpec() {
+    CollapseRelativeBar.CollapseSpec spec = new CollapseRelativeBar.CollapseSpec.Builder()
+        .setMode(CollapseRelativeBar.LayoutParams.COLLAPSED_MODE_OUT)
+        .setScale(0.5f)
+        .setAlphaRange(0f, 0.4f)
+        .build();
+    CollapseRelativeBar.CollapseSpec copy = new CollapseRelativeBar.CollapseSpec.Builder(spec)
+        .build();
+    CollapseRelativeBar.CollapseSpec changed = new CollapseRelativeBar.CollapseSpec.Builder(spec)
+        .setAlpha(0f)
+        .build();
+
+    assertNotSame(spec, copy);
+    assertEquals(spec, copy);
+    assertEquals(spec.hashCode(), copy.hashCode());
+    assertFalse(spec.equals(changed));
+  }
+
+  @Test
+  public void compiledAttributesAreSortedWithTheirValues() {
+    int[] attrIds = {R.attr.clTextColor, R.attr.clScale, R.attr.clMarginLeft};
+    String[] stringValues = {null, null, null, null, "16dp", "16.0dip"};
+    int[] values = {TypedValue.TYPE_REFERENCE, TITLE_COLOR,
+        TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), TypedValue.TYPE_DIMENSION, 0x1001};
+
+    CollapseRelativeBar.CompiledAttributes.sort(attrIds, stringValues, values);
+
+    for (int i = 1; i < attrIds.length; i++) {
+      assertTrue(attrIds[i - 1] < attrIds[i]);
+    }
+    int margin = Arrays.binarySearch(attrIds, R.attr.clMarginLeft);
+    assertEquals("16dp", stringValues[margin * 2]);
+    assertEquals("16.0dip", stringValues[margin * 2 + 1]);
+    assertEquals(TypedValue.TYPE_DIMENSION, values[margin * 2]);
+    assertEquals(0x1001, values[margin * 2 + 1]);
+    int color = Arrays.binarySearch(attrIds, R.attr.clTextColor);
+    assertEquals(TITLE_COLOR, values[color * 2 + 1]);
+  }
+
+  @Test
+  public void compiledSpecOnlyMatchesTheAttributesItWasCompiledFrom() {
+    int[] attrIds = {R.attr.clMarginLeft, R.attr.clScale, R.attr.clTextColor};
+    String[] stringValues = {"16dp", "16.0dip", null, null, null, null};
+    int[] values = {TypedValue.TYPE_DIMENSION, 0x1001,
+        TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), TypedValue.TYPE_REFERENCE, TITLE_COLOR};
+    CollapseRelativeBar.CompiledAttributes.sort(attrIds, stringValues, values);
+
+    assertTrue(matches(attrIds, stringValues, values, android.R.attr.id, TypedValue.TYPE_STRING,
+        0, "@+id/title", R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title"));
+    // aapt didn't keep the raw value
+    assertTrue(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16.0dip",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title"));
+    // the same id and attribute count in another layout
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1801, "24dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title"));
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.7f), "0.7",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title"));
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR + 1, "@color/subtitle"));
+    // the same data with another type
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_INT_COLOR_ARGB8, TITLE_COLOR, "#7f0c0001"));
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clAlpha, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title"));
+    assertFalse(matches(attrIds, stringValues, values,
+        R.attr.clMarginLeft, TypedValue.TYPE_DIMENSION, 0x1001, "16dp",
+        R.attr.clScale, TypedValue.TYPE_FLOAT, Float.floatToIntBits(0.6f), "0.6",
+        R.attr.clTextColor, TypedValue.TYPE_REFERENCE, TITLE_COLOR, "@color/title",
+        R.attr.clAlpha, TypedValue.TYPE_FLOAT, 0, "0"));
+  }
+
+  /**
+   * @param attributes the attribute resource, TypedValue type, data and string quadruples
+   */
+  private static boolean matches(int[] attrIds, String[] stringValues, int[] values,
+                                 Object... attributes) {
+    return CollapseRelativeBar.CompiledAttributes.matches(attributes(attributes), attrIds,
+        stringValues, values);
+  }
+
+  /**
+   * an AttributeSet answering like the binary xml parser, the typed getters return the default
+   * for a value of another type
+   */
+  private static AttributeSet attributes(final Object... attributes) {
+    return mock(AttributeSet.class, new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        Object[] args = invocation.getArguments();
+        if (method.equals("getAttributeCount")) {
+          return attributes.length / 4;
+        }
+        int index = (Integer) args[0] * 4;
+        int type = (Integer) attributes[index + 1];
+        int data = (Integer) attributes[index + 2];
+        switch (method) {
+          case "getAttributeNameResource":
+            return attributes[index];
+          case "getAttributeValue":
+            return attributes[index + 3];
+          case "getAttributeResourceValue":
+            return type == TypedValue.TYPE_REFERENCE ? data : args[1];
+          case "getAttributeFloatValue":
+            return type == TypedValue.TYPE_FLOAT ? Float.intBitsToFloat(data) : args[1];
+          case "getAttributeIntValue":
+            return type >= TypedValue.TYPE_FIRST_INT && type <= TypedValue.TYPE_LAST_INT
+                ? data : args[1];
+          default:
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,456 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.v4.widget.ScrollerCompat;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.touko.library.R;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * a CollapseRelativeBar running on the mockable android.jar, the view tree and the layout pass
+ * are faked, so the collapse code can be driven on a plain JVM
+ */
+public class FakeCollapseRelativeBar extends CollapseRelativeBar {
+  public static final int EXPANDED_HEIGHT = 600;
+  public static final int COLLAPSED_HEIGHT = 100;
+  public static final int WIDTH = 1080;
+
+  private final ViewGroup.LayoutParams barLayoutParams = new ViewGroup.LayoutParams(0, 0);
+  private final ViewTreeObserver viewTreeObserver = mock(ViewTreeObserver.class);
+  private final View[] children;
+  private final Canvas canvas = mock(Canvas.class);
+  private boolean layoutRequested;
+  // every invalidate overload of the bar itself, and the rect ones alone
+  public int invalidateCount;
+  public int invalidateRectCount;
+  public boolean fitsSystemWindows;
+  // AnimationUtils always answers 0 on the mockable android.jar
+  public long animationTimeMillis;
+  // the OverScroller of the mockable android.jar never moves, set before the first fling
+  public ScrollerCompat flingScroller;
+  // the clip bounds are api 18, the mockable android.jar is no api at all
+  public boolean clipChildren;
+  // the children drawChild went on to draw, ViewGroup draws nothing on the mockable android.jar
+  public final List<View> drawnChildren = new ArrayList<>();
+
+  public FakeCollapseRelativeBar(Context context, int childCount) {
+    super(context, null);
+    barLayoutParams.height = EXPANDED_HEIGHT;
+    children = new View[childCount];
+    for (int i = 0; i < childCount; i++) {
+      children[i] = new FakeTextView(context, new LayoutParams(context, null));
+    }
+  }
+
+  /**
+   * attach and run the first global layout, which captures the child origin state
+   */
+  public void layoutOnce() {
+    onAttachedToWindow();
+    ArgumentCaptor<ViewTreeObserver.OnGlobalLayoutListener> captor =
+        ArgumentCaptor.forClass(ViewTreeObserver.OnGlobalLayoutListener.class);
+    // the last one, a reattached bar adds it again
+    verify(viewTreeObserver, atLeastOnce()).addOnGlobalLayoutListener(captor.capture());
+    captor.getValue().onGlobalLayout();
+  }
+
+  /**
+   * the measure and layout pass of a frame, the bar is laid out at its LayoutParams height
+   */
+  public void measureAndLayout() {
+    layoutRequested = false;
+    onMeasure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+        MeasureSpec.makeMeasureSpec(barLayoutParams.height, MeasureSpec.EXACTLY));
+    onLayout(true, 0, 0, WIDTH, barLayoutParams.height);
+  }
+
+  /**
+   * the draw pass of a frame, which reports the frame metrics
+   */
+  public void drawFrame() {
+    dispatchDraw(canvas);
+  }
+
+  @Override
+  public void requestLayout() {
+    super.requestLayout();
+    layoutRequested = true;
+  }
+
+  @Override
+  public void invalidate() {
+    invalidateCount++;
+    super.invalidate();
+  }
+
+  @Override
+  public void invalidate(Rect dirty) {
+    invalidateCount++;
+    invalidateRectCount++;
+    super.invalidate(dirty);
+  }
+
+  @Override
+  public void invalidate(int l, int t, int r, int b) {
+    invalidateCount++;
+    invalidateRectCount++;
+    super.invalidate(l, t, r, b);
+  }
+
+  /**
+   * the translation, scale and alpha values set on the children
+   */
+  public int getChildPropertyCount() {
+    int count = 0;
+    for (View child : children) {
+      if (child instanceof FakeTextView) {
+        count += ((FakeTextView) child).propertyCount;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean getFitsSystemWindows() {
+    return fitsSystemWindows;
+  }
+
+  @Override
+  boolean isFittingSystemWindows(View view) {
+    // ViewCompat always answers false on the mockable android.jar
+    return view.getFitsSystemWindows();
+  }
+
+  @Override
+  boolean canClipChildren() {
+    return clipChildren;
+  }
+
+  @Override
+  int getImportantForAccessibility(View child) {
+    return child.getImportantForAccessibility();
+  }
+
+  @Override
+  void setImportantForAccessibility(View child, int mode) {
+    child.setImportantForAccessibility(mode);
+  }
+
+  @Override
+  boolean drawChildView(Canvas canvas, View child, long drawingTime) {
+    drawnChildren.add(child);
+    return super.drawChildView(canvas, child, drawingTime);
+  }
+
+  @Override
+  long currentAnimationTimeMillis() {
+    return animationTimeMillis;
+  }
+
+  @Override
+  ScrollerCompat createFlingScroller() {
+    return flingScroller != null ? flingScroller : super.createFlingScroller();
+  }
+
+  @Override
+  public boolean isLayoutRequested() {
+    return layoutRequested;
+  }
+
+  @Override
+  public int getChildCount() {
+    return children.length;
+  }
+
+  @Override
+  public View getChildAt(int index) {
+    return children[index];
+  }
+
+  @Override
+  public ViewGroup.LayoutParams getLayoutParams() {
+    return barLayoutParams;
+  }
+
+  @Override
+  public int getHeight() {
+    return barLayoutParams.height;
+  }
+
+  @Override
+  public int getWidth() {
+    return WIDTH;
+  }
+
+  @Override
+  public ViewTreeObserver getViewTreeObserver() {
+    return viewTreeObserver;
+  }
+
+  /**
+   * a context whose styled attributes give every TextView child a collapsed text color
+   */
+  public static Context mockContext() {
+    return mockContext(COLLAPSE_STRATEGY_HEIGHT);
+  }
+
+  /**
+   * @param collapseStrategy the clCollapseStrategy of the bar
+   */
+  public static Context mockContext(int collapseStrategy) {
+    Map<Integer, Object> barValues = new HashMap<>();
+    barValues.put(R.styleable.CollapseRelativeBar_clCollapseStrategy, collapseStrategy);
+    return mockContext(barValues);
+  }
+
+  /**
+   * @param barValues the styled attributes of the bar, besides its collapsed height
+   */
+  public static Context mockContext(Map<Integer, Object> barValues) {
+    Context context = mock(Context.class);
+    when(context.getTheme()).thenReturn(mock(Resources.Theme.class));
+
+    barValues = new HashMap<>(barValues);
+    barValues.put(R.styleable.CollapseRelativeBar_clBarHeight, COLLAPSED_HEIGHT);
+    TypedArray barArray = mockTypedArray(barValues);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseRelativeBar))).thenReturn(barArray);
+
+    Map<Integer, Object> childValues = new HashMap<>();
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clTextColor, 0xffffffff);
+    childValues.put(R.styleable.CollapseLayout_LayoutParams_clAlpha, 0.5f);
+    TypedArray childArray = mockTypedArray(childValues);
+    when(context.obtainStyledAttributes(any(AttributeSet.class),
+        same(R.styleable.CollapseLayout_LayoutParams))).thenReturn(childArray);
+    return context;
+  }
+
+  /**
+   * a TypedArray returning the given values, or the default value passed by the caller
+   */
+  public static TypedArray mockTypedArray(final Map<Integer, Object> values) {
+    return mock(TypedArray.class, new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        if (args.length > 0 && values.containsKey(args[0])) {
+          return values.get(args[0]);
+        }
+        if (args.length > 1) {
+          // the default value is the last argument, getFraction has a base and a pbase before it
+          return args[args.length - 1];
+        }
+        return RETURNS_DEFAULTS.answer(invocation);
+      }
+    });
+  }
+
+  public static class FakeTextView extends TextView {
+    public static final float TEXT_SIZE = 40f;
+
+    private final ColorStateList textColors = mock(ColorStateList.class);
+    private final ViewGroup.LayoutParams layoutParams;
+    // the tags are dropped on the mockable android.jar, the bar keeps the child state in them
+    private final Map<Integer, Object> tags = new HashMap<>();
+    public int setTextColorCount;
+    // the view properties are dropped on the mockable android.jar too, the transition reads
+    // them back
+    private float translationX;
+    private float translationY;
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float alpha = 1f;
+    public int propertyCount;
+    // in px, whatever the unit it is set with
+    public float textSize = TEXT_SIZE;
+    // the Rect setters are dropped, only whether the child is clipped shows
+    public Rect clipBounds;
+    private int layerType = LAYER_TYPE_NONE;
+    private int importantForAccessibility = IMPORTANT_FOR_ACCESSIBILITY_AUTO;
+
+    public FakeTextView(Context context, ViewGroup.LayoutParams layoutParams) {
+      super(context);
+      this.layoutParams = layoutParams;
+      when(textColors.getDefaultColor()).thenReturn(0xff000000);
+    }
+
+    @Override
+    public ViewGroup.LayoutParams getLayoutParams() {
+      return layoutParams;
+    }
+
+    @Override
+    public Object getTag(int key) {
+      return tags.get(key);
+    }
+
+    @Override
+    public void setTag(int key, Object tag) {
+      tags.put(key, tag);
+    }
+
+    @Override
+    public ColorStateList getTextColors() {
+      return textColors;
+    }
+
+    @Override
+    public int getHeight() {
+      return 50;
+    }
+
+    @Override
+    public int getWidth() {
+      return 200;
+    }
+
+    @Override
+    public int getRight() {
+      // laid out at the top left of the bar
+      return getLeft() + getWidth();
+    }
+
+    @Override
+    public int getBottom() {
+      return getTop() + getHeight();
+    }
+
+    @Override
+    public void setImportantForAccessibility(int mode) {
+      importantForAccessibility = mode;
+    }
+
+    @Override
+    public int getImportantForAccessibility() {
+      return importantForAccessibility;
+    }
+
+    @Override
+    public void setTextColor(int color) {
+      setTextColorCount++;
+    }
+
+    @Override
+    public float getTextSize() {
+      return textSize;
+    }
+
+    @Override
+    public void setTextSize(int unit, float size) {
+      textSize = size;
+    }
+
+    @Override
+    public void setLayerType(int layerType, Paint paint) {
+      this.layerType = layerType;
+    }
+
+    @Override
+    public int getLayerType() {
+      return layerType;
+    }
+
+    @Override
+    public void setClipBounds(Rect clipBounds) {
+      this.clipBounds = clipBounds;
+    }
+
+    @Override
+    public Rect getClipBounds() {
+      return clipBounds;
+    }
+
+    @Override
+    public float getPivotX() {
+      // the default pivot, the center
+      return getWidth() / 2f;
+    }
+
+    @Override
+    public float getPivotY() {
+      return getHeight() / 2f;
+    }
+
+    @Override
+    public void setTranslationX(float translationX) {
+      this.translationX = translationX;
+      propertyCount++;
+    }
+
+    @Override
+    public float getTranslationX() {
+      return translationX;
+    }
+
+    @Override
+    public void setTranslationY(float translationY) {
+      this.translationY = translationY;
+      propertyCount++;
+    }
+
+    @Override
+    public float getTranslationY() {
+      return translationY;
+    }
+
+    @Override
+    public void setScaleX(float scaleX) {
+      this.scaleX = scaleX;
+      propertyCount++;
+    }
+
+    @Override
+    public float getScaleX() {
+      return scaleX;
+    }
+
+    @Override
+    public void setScaleY(float scaleY) {
+      this.scaleY = scaleY;
+      propertyCount++;
+    }
+
+    @Override
+    public float getScaleY() {
+      return scaleY;
+    }
+
+    @Override
+    public void setAlpha(float alpha) {
+      this.alpha = alpha;
+      propertyCount++;
+    }
+
+    @Override
+    public float getAlpha() {
+      return alpha;
+    }
+  }
+}
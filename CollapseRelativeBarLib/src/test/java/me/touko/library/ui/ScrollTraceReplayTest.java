@@ -0,0 +1,56 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import me.touko.library.core.ScrollTrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollTraceReplayTest {
+  private static final int CHILD_COUNT = 5;
+
+  @Test
+  public void replayedTraceEndsInTheRecordedState() throws Exception {
+    Context context = FakeCollapseRelativeBar.mockContext();
+    View target = new View(context);
+    CollapseRelativeBar.CollapseBehavior behavior = new CollapseRelativeBar.CollapseBehavior();
+    FakeCollapseRelativeBar recorded = new FakeCollapseRelativeBar(context, CHILD_COUNT);
+    recorded.layoutOnce();
+
+    behavior.startRecording(new ScrollTrace());
+    int[] consumed = new int[2];
+    behavior.onNestedScrollAccepted(null, recorded, target, target,
+        ViewCompat.SCROLL_AXIS_VERTICAL);
+    for (int i = 0; i < 30; i++) {
+      behavior.onNestedPreScroll(null, recorded, target, 0, 11, consumed);
+    }
+    for (int i = 0; i < 10; i++) {
+      behavior.onNestedScroll(null, recorded, target, 0, 0, 0, -7);
+    }
+    ScrollTrace trace = behavior.stopRecording();
+    // not recorded anymore
+    behavior.onNestedPreScroll(null, recorded, target, 0, 5, consumed);
+    behavior.onNestedScroll(null, recorded, target, 0, 0, 0, -5);
+    assertEquals(41, trace.size());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    trace.writeTo(out);
+    ScrollTrace read = ScrollTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    FakeCollapseRelativeBar replayed = new FakeCollapseRelativeBar(context, CHILD_COUNT);
+    replayed.layoutOnce();
+    long[] eventNanos = new CollapseRelativeBar.ScrollTraceReplayer()
+        .replay(read, replayed, target, false);
+
+    assertEquals(read.size(), eventNanos.length);
+    assertTrue(replayed.getVisibleHeight() < FakeCollapseRelativeBar.EXPANDED_HEIGHT);
+    assertEquals(recorded.getVisibleHeight(), replayed.getVisibleHeight());
+  }
+}
@@ -0,0 +1,92 @@
+package me.touko.library.ui;
+
+import android.content.Context;
+import android.support.design.widget.CoordinatorLayout;
+import android.view.View;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * the scrolling sibling only hears about the bar through layoutDependsOn(), which
+ * CoordinatorLayout asks when sorting its children and again before every dispatch
+ */
+public class ScrollViewBehaviorTest {
+  private static final int SCROLL_DELTA = 50;
+
+  private final CollapseRelativeBar.CollapseBehavior behavior =
+      new CollapseRelativeBar.CollapseBehavior();
+  private final CollapseRelativeBar.ScrollViewBehavior siblingBehavior =
+      new CollapseRelativeBar.ScrollViewBehavior(null, null);
+  private final CoordinatorLayout coordinator = mock(CoordinatorLayout.class);
+  private final int[] consumed = new int[2];
+  private long frameTime;
+
+  @Test
+  public void clipStrategySiblingFollowsTheVisibleHeight() {
+    Context context =
+        FakeCollapseRelativeBar.mockContext(CollapseRelativeBar.COLLAPSE_STRATEGY_CLIP);
+    FakeCollapseRelativeBar bar = new FakeCollapseRelativeBar(context, 1);
+    bar.layoutOnce();
+    OffsetView sibling = new OffsetView(context);
+    // the dependency sort asks both ways round
+    assertTrue(siblingBehavior.layoutDependsOn(coordinator, sibling, bar));
+    assertTrue(siblingBehavior.layoutDependsOn(coordinator, sibling, bar));
+    siblingBehavior.onLayoutChild(coordinator, sibling, 0);
+
+    scroll(bar);
+    assertTrue(dispatchDependentViewChanged(bar, sibling));
+    assertEquals(bar.getVisibleHeight(), sibling.lastOffset);
+    scroll(bar);
+    assertTrue(dispatchDependentViewChanged(bar, sibling));
+    assertEquals(bar.getVisibleHeight(), sibling.lastOffset);
+  }
+
+  @Test
+  public void offsetScrollingLayoutFollowsAReplacedBar() {
+    Context context = FakeCollapseRelativeBar.mockContext();
+    FakeCollapseRelativeBar bar = new FakeCollapseRelativeBar(context, 1);
+    bar.setScrollingLayout(CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET);
+    bar.layoutOnce();
+    OffsetView sibling = new OffsetView(context);
+    assertTrue(dispatchDependentViewChanged(bar, sibling));
+
+    FakeCollapseRelativeBar replaced = new FakeCollapseRelativeBar(context, 1);
+    replaced.setScrollingLayout(CollapseRelativeBar.SCROLLING_LAYOUT_OFFSET);
+    replaced.layoutOnce();
+    scroll(replaced);
+    assertTrue(dispatchDependentViewChanged(replaced, sibling));
+    // the bar is at the top of the fake parent
+    assertEquals(replaced.getVisibleHeight(), sibling.lastOffset);
+  }
+
+  /**
+   * what CoordinatorLayout does before drawing, the behavior only gets the change if it still
+   * depends on the bar
+   */
+  private boolean dispatchDependentViewChanged(CollapseRelativeBar bar, View sibling) {
+    return siblingBehavior.layoutDependsOn(coordinator, sibling, bar)
+        && siblingBehavior.onDependentViewChanged(coordinator, sibling, bar);
+  }
+
+  private void scroll(FakeCollapseRelativeBar bar) {
+    behavior.onNestedPreScroll(coordinator, bar, null, 0, SCROLL_DELTA, consumed);
+    bar.dispatchPendingFrame(frameTime += 16);
+  }
+
+  private static class OffsetView extends View {
+    private int lastOffset;
+
+    public OffsetView(Context context) {
+      super(context);
+    }
+
+    @Override
+    public void offsetTopAndBottom(int offset) {
+      lastOffset = offset;
+    }
+  }
+}
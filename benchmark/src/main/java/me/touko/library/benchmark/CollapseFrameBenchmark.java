@@ -0,0 +1,158 @@
+package me.touko.library.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.touko.library.core.CollapseMath;
+import me.touko.library.core.TransitionOps;
+
+/**
+ * the per frame cost of the collapse math, with the children specs and origin states in
+ * primitive arrays like a CollapseRelativeBar resolves them from its LayoutParams.
+ * <p/>
+ * run by ./gradlew :benchmark:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollapseFrameBenchmark {
+  private static final int BAR_WIDTH = 1080;
+  private static final int EXPANDED_HEIGHT = 600;
+  private static final int COLLAPSED_HEIGHT = 168;
+  private static final int PADDING = 16;
+  private static final int SCROLL_DELTA = 7;
+
+  private static final float TRANSLATION_THRESHOLD = 0.5f;
+  private static final float SCALE_THRESHOLD = 0.001f;
+  private static final float ALPHA_THRESHOLD = 1f / 255;
+
+  @Param({"1", "10", "50", "200"})
+  public int childCount;
+
+  @Param({"pin", "out", "none"})
+  public String mode;
+
+  // child specs
+  private int collapsedMode;
+  private int[] collapsedMarginLefts;
+  private int[] collapsedWidths;
+  private float[] collapsedScales;
+  private float[] collapsedAlphas;
+  private int[] collapsedTextColors;
+
+  // child origin states
+  private int[] tops;
+  private int[] lefts;
+  private int[] widths;
+  private int[] heights;
+  private int[] textColors;
+
+  private TransitionOps[] transitionOps;
+
+  private int height = EXPANDED_HEIGHT;
+  private int direction = 1;
+
+  @Setup
+  public void setUp() {
+    if ("pin".equals(mode)) {
+      collapsedMode = CollapseMath.MODE_PIN;
+    } else if ("out".equals(mode)) {
+      collapsedMode = CollapseMath.MODE_OUT;
+    } else {
+      collapsedMode = CollapseMath.MODE_NONE;
+    }
+    collapsedMarginLefts = new int[childCount];
+    collapsedWidths = new int[childCount];
+    collapsedScales = new float[childCount];
+    collapsedAlphas = new float[childCount];
+    collapsedTextColors = new int[childCount];
+    tops = new int[childCount];
+    lefts = new int[childCount];
+    widths = new int[childCount];
+    heights = new int[childCount];
+    textColors = new int[childCount];
+
+    Random random = new Random(childCount);
+    for (int i = 0; i < childCount; i++) {
+      widths[i] = 100 + random.nextInt(400);
+      heights[i] = 40 + random.nextInt(160);
+      lefts[i] = random.nextInt(BAR_WIDTH - widths[i]);
+      tops[i] = random.nextInt(EXPANDED_HEIGHT - heights[i]);
+      collapsedMarginLefts[i] = random.nextInt(200);
+      collapsedWidths[i] = widths[i] / 2;
+      collapsedScales[i] = 0.5f + random.nextFloat() / 2;
+      collapsedAlphas[i] = random.nextFloat();
+      textColors[i] = random.nextInt() | 0xff000000;
+      collapsedTextColors[i] = random.nextInt() | 0xff000000;
+    }
+    transitionOps = resolve();
+  }
+
+  /**
+   * resolve every child spec into its ops, done whenever the children or their specs change
+   */
+  @Benchmark
+  public TransitionOps[] resolve() {
+    TransitionOps[] resolved = new TransitionOps[childCount];
+    for (int i = 0; i < childCount; i++) {
+      TransitionOps ops = new TransitionOps();
+      if (collapsedMode != CollapseMath.MODE_NONE) {
+        ops.add(TransitionOps.OP_TRANSLATION_Y, 0, CollapseMath.getModeTranslationY(
+            collapsedMode, tops[i], heights[i], collapsedScales[i], COLLAPSED_HEIGHT, PADDING),
+            TRANSLATION_THRESHOLD);
+      }
+      ops.add(TransitionOps.OP_TRANSLATION_X, 0, CollapseMath.getMarginLeftTranslationX(
+          lefts[i], widths[i], collapsedScales[i], collapsedMarginLefts[i], PADDING),
+          TRANSLATION_THRESHOLD);
+      ops.add(TransitionOps.OP_WIDTH, widths[i], collapsedWidths[i], 0);
+      ops.add(TransitionOps.OP_SCALE_X, 1, collapsedScales[i], SCALE_THRESHOLD);
+      ops.add(TransitionOps.OP_SCALE_Y, 1, collapsedScales[i], SCALE_THRESHOLD);
+      ops.add(TransitionOps.OP_ALPHA, 1, collapsedAlphas[i], ALPHA_THRESHOLD);
+      resolved[i] = ops;
+    }
+    return resolved;
+  }
+
+  /**
+   * one scroll frame, the bar height moves by a scroll delta and bounces between its bounds
+   *
+   * @return the count of the values to push plus the text colors, so nothing is optimized away
+   */
+  @Benchmark
+  public int frame() {
+    int nextHeight = height - direction * SCROLL_DELTA;
+    height = CollapseMath.clampHeight(nextHeight, COLLAPSED_HEIGHT, EXPANDED_HEIGHT);
+    if (height != nextHeight) {
+      direction = -direction;
+    }
+    float percent = CollapseMath.getCollapsePercent(height, COLLAPSED_HEIGHT, EXPANDED_HEIGHT);
+    boolean exact = percent <= 0f || percent >= 1f;
+    int result = 0;
+    for (int i = 0; i < childCount; i++) {
+      TransitionOps ops = transitionOps[i];
+      for (int j = 0, z = ops.size(); j < z; j++) {
+        if (ops.update(j, percent, exact)) {
+          result++;
+        }
+      }
+      result += CollapseMath.getColorBetweenTwoValue(textColors[i], collapsedTextColors[i],
+          percent);
+    }
+    return result;
+  }
+}
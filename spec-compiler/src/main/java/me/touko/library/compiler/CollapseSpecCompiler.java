@@ -0,0 +1,536 @@
+package me.touko.library.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * compile the cl* attributes of the CollapseRelativeBar children in an app's layouts into a
+ * CollapseSpecProvider, so inflating them doesn't need to parse the attributes.
+ * <p>
+ * A child is looked up by its id and attribute count, then its cl* attributes are compared with
+ * the ones the spec was compiled from, a child of a layout the compiler didn't see falls back to
+ * the runtime parsing. Children sharing the id and attribute count with different attributes,
+ * children using a style, a clScrim or a value only known at runtime (theme attributes) are left
+ * out and parsed at runtime as before.
+ * <p>
+ * usage: CollapseSpecCompiler &lt;output dir&gt; &lt;R package&gt; &lt;res dir&gt;...
+ */
+public final class CollapseSpecCompiler {
+  static final String CLASS_NAME = "CollapseSpecs";
+
+  private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+  private static final String TOOLS_NS = "http://schemas.android.com/tools";
+  private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+  private static final String APP_NS_PREFIX = "http://schemas.android.com/apk/res";
+  private static final String BAR_CLASS = "me.touko.library.ui.CollapseRelativeBar";
+
+  private static final String[] MODE_NAMES = {"center", "out", "none"};
+  private static final int[] MODE_VALUES = {0, 1, 2};
+  private static final String[] USE_LAYER_NAMES = {"none", "auto"};
+  private static final int[] USE_LAYER_VALUES = {0, 1};
+  private static final String[] SIZE_MODE_NAMES = {"layout", "visual"};
+  private static final int[] SIZE_MODE_VALUES = {0, 1};
+
+  // the child attributes the library parses, CollapseLayout_LayoutParams
+  private static final Set<String> CHILD_ATTRIBUTES = new HashSet<>(Arrays.asList(
+      "clScaleX", "clScaleY", "clScale", "clWidth", "clHeight", "clMarginLeft",
+      "clMarginRight", "clMarginTop", "clMarginBottom", "clAlpha", "clScrim", "clTextColor",
+      "clTextSize", "clMode", "clInterpolator", "clScaleXInterpolator", "clScaleYInterpolator",
+      "clUseLayer", "clSizeMode", "clTimelineSteps", "clTranslationStart", "clTranslationEnd",
+      "clSizeStart", "clSizeEnd", "clScaleStart", "clScaleEnd", "clAlphaStart", "clAlphaEnd"));
+
+  // the format of the compiled attributes, by which their values aapt stores are compared
+  private static final Map<String, Integer> ATTRIBUTE_FORMATS = new HashMap<>();
+
+  static {
+    for (String name : new String[]{"clScaleX", "clScaleY", "clScale", "clAlpha"}) {
+      ATTRIBUTE_FORMATS.put(name, ResourceValues.FORMAT_FLOAT);
+    }
+    for (String name : new String[]{"clWidth", "clHeight", "clMarginLeft", "clMarginRight",
+        "clMarginTop", "clMarginBottom", "clTextSize"}) {
+      ATTRIBUTE_FORMATS.put(name, ResourceValues.FORMAT_DIMENSION);
+    }
+    for (String name : new String[]{"clTranslationStart", "clTranslationEnd", "clSizeStart",
+        "clSizeEnd", "clScaleStart", "clScaleEnd", "clAlphaStart", "clAlphaEnd"}) {
+      ATTRIBUTE_FORMATS.put(name, ResourceValues.FORMAT_FRACTION);
+    }
+    ATTRIBUTE_FORMATS.put("clTextColor", ResourceValues.FORMAT_COLOR);
+    ATTRIBUTE_FORMATS.put("clTimelineSteps", ResourceValues.FORMAT_INTEGER);
+    for (String name : new String[]{"clInterpolator", "clScaleXInterpolator",
+        "clScaleYInterpolator"}) {
+      ATTRIBUTE_FORMATS.put(name, ResourceValues.FORMAT_INTERPOLATOR);
+    }
+  }
+
+  // the compiled children by id and attribute count, null if it must be parsed at runtime
+  private final Map<String, CompiledChild> specs = new TreeMap<>();
+  private final Set<String> runtimeIds = new HashSet<>();
+  // the children which can be inflated into a CollapseRelativeBar
+  private final Set<String> barChildren = new HashSet<>();
+  private final String rPackage;
+  private final DocumentBuilder documentBuilder;
+
+  public CollapseSpecCompiler(String rPackage) {
+    this.rPackage = rPackage;
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      documentBuilder = factory.newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, SAXException {
+    if (args.length < 2) {
+      System.err.println("usage: CollapseSpecCompiler <output dir> <R package> <res dir>...");
+      System.exit(1);
+    }
+    CollapseSpecCompiler compiler = new CollapseSpecCompiler(args[1]);
+    for (int i = 2; i < args.length; i++) {
+      compiler.addResDir(new File(args[i]));
+    }
+    File packageDir = new File(args[0], args[1].replace('.', File.separatorChar));
+    if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+      throw new IOException("can't create " + packageDir);
+    }
+    Writer writer = new OutputStreamWriter(
+        new FileOutputStream(new File(packageDir, CLASS_NAME + ".java")), "UTF-8");
+    try {
+      writer.write(compiler.generate());
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * add the layouts of every layout* folder of a res dir
+   */
+  public void addResDir(File resDir) throws IOException, SAXException {
+    File[] folders = resDir.listFiles();
+    if (folders == null) {
+      return;
+    }
+    Arrays.sort(folders);
+    for (File folder : folders) {
+      if (!folder.isDirectory()
+          || !(folder.getName().equals("layout") || folder.getName().startsWith("layout-"))) {
+        continue;
+      }
+      File[] layouts = folder.listFiles();
+      if (layouts == null) {
+        continue;
+      }
+      Arrays.sort(layouts);
+      for (File layout : layouts) {
+        if (layout.getName().endsWith(".xml")) {
+          addLayout(documentBuilder.parse(layout));
+        }
+      }
+    }
+  }
+
+  void addLayout(Document layout) {
+    Element root = layout.getDocumentElement();
+    // data binding layouts are rewritten before aapt sees them
+    addElement(root, root.getTagName().equals("layout"), true);
+  }
+
+  private void addElement(Element element, boolean runtimeOnly, boolean maybeIncluded) {
+    String id = getId(element);
+    if (id != null) {
+      String tag = element.getTagName();
+      if (runtimeOnly || tag.equals("include")) {
+        // an include id replaces the id of the included root
+        runtimeIds.add(id);
+      } else {
+        // every element is recorded, so an element sharing the id and attribute count with a
+        // bar child but holding different attributes leaves the child to the runtime parsing
+        addChild(id, element,
+            maybeIncluded || isBar(element.getParentNode()) || hasChildAttributes(element));
+      }
+    }
+    boolean merge = element.getTagName().equals("merge");
+    NodeList children = element.getChildNodes();
+    for (int i = 0; i < children.getLength(); i++) {
+      if (children.item(i) instanceof Element) {
+        addElement((Element) children.item(i), runtimeOnly, merge);
+      }
+    }
+  }
+
+  private void addChild(String id, Element element, boolean barChild) {
+    String key = id + "#" + getAttributeCount(element);
+    if (barChild) {
+      barChildren.add(key);
+    }
+    CompiledChild spec;
+    try {
+      spec = compile(element);
+    } catch (ResourceValues.UnsupportedValueException e) {
+      spec = null;
+    }
+    if (spec == null || specs.containsKey(key) && !spec.equals(specs.get(key))) {
+      runtimeIds.add(key);
+    }
+    specs.put(key, spec);
+  }
+
+  /**
+   * the builder calls of the child spec, the same values CollapseSpec.fromTypedArray parses
+   */
+  private CompiledChild compile(Element element) throws ResourceValues.UnsupportedValueException {
+    if (element.hasAttribute("style")) {
+      throw new ResourceValues.UnsupportedValueException("styled child");
+    }
+    Map<String, Attr> attributes = getChildAttributes(element);
+    Map<String, String> values = new TreeMap<>();
+    for (Map.Entry<String, Attr> entry : attributes.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().getValue().trim());
+    }
+    for (String value : values.values()) {
+      if (value.startsWith("?")) {
+        throw new ResourceValues.UnsupportedValueException("theme attribute " + value);
+      }
+    }
+    if (values.containsKey("clScrim")) {
+      // the scrim drawable lives on the LayoutParams
+      throw new ResourceValues.UnsupportedValueException("clScrim");
+    }
+    List<String> calls = new ArrayList<>();
+    if (values.containsKey("clMode")) {
+      calls.add("setMode(" + ResourceValues.named(values.get("clMode"), MODE_NAMES, MODE_VALUES)
+          + ")");
+    }
+    String scale = values.get("clScale");
+    if (scale != null && ResourceValues.parseFloat(scale, scale) != 1f) {
+      calls.add("setScale(" + ResourceValues.floatValue(scale) + ")");
+    } else {
+      addFloat(calls, values, "clScaleX", "setScaleX");
+      addFloat(calls, values, "clScaleY", "setScaleY");
+    }
+    addDimension(calls, values, "clWidth", "setWidth", "getDimensionPixelOffset");
+    addDimension(calls, values, "clHeight", "setHeight", "getDimensionPixelSize");
+    addDimension(calls, values, "clMarginLeft", "setMarginLeft", "getDimensionPixelSize");
+    addDimension(calls, values, "clMarginRight", "setMarginRight", "getDimensionPixelSize");
+    addDimension(calls, values, "clMarginTop", "setMarginTop", "getDimensionPixelSize");
+    addDimension(calls, values, "clMarginBottom", "setMarginBottom", "getDimensionPixelSize");
+    addFloat(calls, values, "clAlpha", "setAlpha");
+    if (values.containsKey("clTextColor")) {
+      calls.add("setTextColor(" + ResourceValues.color(values.get("clTextColor"), rPackage)
+          + ")");
+    }
+    addDimension(calls, values, "clTextSize", "setTextSize", "getDimension");
+    if (values.containsKey("clUseLayer")) {
+      calls.add("setUseLayer(" + ResourceValues.named(values.get("clUseLayer"),
+          USE_LAYER_NAMES, USE_LAYER_VALUES) + ")");
+    }
+    if (values.containsKey("clSizeMode")) {
+      calls.add("setSizeMode(" + ResourceValues.named(values.get("clSizeMode"),
+          SIZE_MODE_NAMES, SIZE_MODE_VALUES) + ")");
+    }
+    if (values.containsKey("clTimelineSteps")) {
+      calls.add("setTimelineSteps("
+          + ResourceValues.integer(values.get("clTimelineSteps"), rPackage) + ")");
+    }
+    addRange(calls, values, "clTranslation", "setTranslationRange");
+    addRange(calls, values, "clSize", "setSizeRange");
+    addRange(calls, values, "clScale", "setScaleRange");
+    addRange(calls, values, "clAlpha", "setAlphaRange");
+    addInterpolator(calls, values, "clInterpolator", "setInterpolator");
+    addInterpolator(calls, values, "clScaleXInterpolator", "setScaleXInterpolator");
+    addInterpolator(calls, values, "clScaleYInterpolator", "setScaleYInterpolator");
+
+    StringBuilder builder = new StringBuilder("new CollapseRelativeBar.CollapseSpec.Builder()");
+    for (String call : calls) {
+      builder.append("\n          .").append(call);
+    }
+    builder.append("\n          .build()");
+
+    List<String> attributeIds = new ArrayList<>();
+    List<String> stringValues = new ArrayList<>();
+    List<String> typedValues = new ArrayList<>();
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      String name = entry.getKey();
+      attributeIds.add("R.attr." + name);
+      stringValues.add(getStringValues(name, attributes.get(name).getValue(), entry.getValue()));
+      typedValues.add(getTypedValue(name, entry.getValue()));
+    }
+    return new CompiledChild(builder.toString(), join(attributeIds), join(stringValues),
+        join(typedValues));
+  }
+
+  private String getStringValues(String name, String raw, String value)
+      throws ResourceValues.UnsupportedValueException {
+    if (!ATTRIBUTE_FORMATS.containsKey(name)) {
+      // enums and flags
+      return "null, null";
+    }
+    return ResourceValues.stringValues(raw, value, ATTRIBUTE_FORMATS.get(name));
+  }
+
+  private String getTypedValue(String name, String value)
+      throws ResourceValues.UnsupportedValueException {
+    switch (name) {
+      case "clMode":
+        return ResourceValues.typedNamed(value, MODE_NAMES, MODE_VALUES, true);
+      case "clUseLayer":
+        return ResourceValues.typedNamed(value, USE_LAYER_NAMES, USE_LAYER_VALUES, false);
+      case "clSizeMode":
+        return ResourceValues.typedNamed(value, SIZE_MODE_NAMES, SIZE_MODE_VALUES, false);
+      default:
+        return ResourceValues.typedValue(value, ATTRIBUTE_FORMATS.get(name), rPackage);
+    }
+  }
+
+  private static String join(List<String> items) {
+    StringBuilder builder = new StringBuilder();
+    for (String item : items) {
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+      builder.append(item);
+    }
+    return builder.toString();
+  }
+
+  private void addFloat(List<String> calls, Map<String, String> values, String name,
+                        String setter) throws ResourceValues.UnsupportedValueException {
+    if (values.containsKey(name)) {
+      calls.add(setter + "(" + ResourceValues.floatValue(values.get(name)) + ")");
+    }
+  }
+
+  private void addDimension(List<String> calls, Map<String, String> values, String name,
+                            String setter, String getter)
+      throws ResourceValues.UnsupportedValueException {
+    if (values.containsKey(name)) {
+      calls.add(setter + "(" + ResourceValues.dimension(values.get(name), getter, rPackage)
+          + ")");
+    }
+  }
+
+  private void addRange(List<String> calls, Map<String, String> values, String group,
+                        String setter) throws ResourceValues.UnsupportedValueException {
+    String start = values.get(group + "Start");
+    String end = values.get(group + "End");
+    if (start != null || end != null) {
+      calls.add(setter + "("
+          + (start != null ? ResourceValues.fraction(start, rPackage) : "0f") + ", "
+          + (end != null ? ResourceValues.fraction(end, rPackage) : "1f") + ")");
+    }
+  }
+
+  private void addInterpolator(List<String> calls, Map<String, String> values, String name,
+                               String setter) throws ResourceValues.UnsupportedValueException {
+    if (values.containsKey(name)) {
+      calls.add(setter + "(CollapseRelativeBar.CollapseSpec.loadInterpolator(context, "
+          + ResourceValues.reference(values.get(name), "interpolator", rPackage) + "))");
+    }
+  }
+
+  /**
+   * generate the CollapseSpecs source
+   */
+  public String generate() {
+    StringBuilder source = new StringBuilder();
+    source.append("// generated by the CollapseRelativeBar spec-compiler from res/layout*, ")
+        .append("do not edit\n")
+        .append("package ").append(rPackage).append(";\n\n")
+        .append("import android.content.Context;\n")
+        .append("import android.content.res.Resources;\n")
+        .append("import android.support.v4.content.ContextCompat;\n")
+        .append("import android.util.AttributeSet;\n")
+        .append("import android.util.DisplayMetrics;\n")
+        .append("import android.util.TypedValue;\n")
+        .append("import me.touko.library.ui.CollapseRelativeBar;\n\n")
+        .append("public final class ").append(CLASS_NAME)
+        .append(" implements CollapseRelativeBar.CollapseSpecProvider {\n");
+    Map<String, CompiledChild> compiled = getCompiledChildren();
+    // the attributes each spec was compiled from, the inflated child is compared with
+    int index = 0;
+    for (CompiledChild child : compiled.values()) {
+      source.append("  private static final int[] ATTRS_").append(index).append(" = {")
+          .append(child.attributeIds).append("};\n")
+          .append("  private static final String[] STRING_VALUES_").append(index)
+          .append(" = {").append(child.stringValues).append("};\n")
+          .append("  private static final int[] VALUES_").append(index).append(" = {")
+          .append(child.typedValues).append("};\n");
+      index++;
+    }
+    if (index > 0) {
+      // the R.attr ids are only known at runtime, matches() looks them up by binary search
+      source.append("\n")
+          .append("  static {\n");
+      for (int i = 0; i < index; i++) {
+        source.append("    CollapseRelativeBar.CompiledAttributes.sort(ATTRS_").append(i)
+            .append(", STRING_VALUES_").append(i).append(", VALUES_").append(i).append(");\n");
+      }
+      source.append("  }\n");
+    }
+    source.append("\n")
+        .append("  @Override\n")
+        .append("  public CollapseRelativeBar.CollapseSpec getCollapseSpec(Context context, ")
+        .append("int viewId,\n")
+        .append("      AttributeSet attrs) {\n")
+        .append("    int attributeCount = attrs.getAttributeCount();\n")
+        .append("    Resources res = context.getResources();\n")
+        .append("    DisplayMetrics metrics = res.getDisplayMetrics();\n");
+    index = 0;
+    for (Map.Entry<String, CompiledChild> entry : compiled.entrySet()) {
+      String key = entry.getKey();
+      int hash = key.lastIndexOf('#');
+      // R.id fields aren't constants in libraries, no switch
+      source.append("    if (viewId == ").append(key.substring(0, hash))
+          .append(" && attributeCount == ").append(key.substring(hash + 1)).append(") {\n")
+          .append("      if (!CollapseRelativeBar.CompiledAttributes.matches(attrs, ATTRS_")
+          .append(index).append(", STRING_VALUES_").append(index).append(", VALUES_")
+          .append(index).append(")) {\n")
+          .append("        return null;\n")
+          .append("      }\n")
+          .append("      return ").append(entry.getValue().spec).append(";\n")
+          .append("    }\n");
+      index++;
+    }
+    source.append("    return null;\n")
+        .append("  }\n")
+        .append("}\n");
+    return source.toString();
+  }
+
+  /**
+   * the compiled children by id and attribute count
+   */
+  Map<String, String> getCompiledSpecs() {
+    Map<String, String> compiled = new LinkedHashMap<>();
+    for (Map.Entry<String, CompiledChild> entry : getCompiledChildren().entrySet()) {
+      compiled.put(entry.getKey(), entry.getValue().spec);
+    }
+    return compiled;
+  }
+
+  private Map<String, CompiledChild> getCompiledChildren() {
+    Map<String, CompiledChild> compiled = new LinkedHashMap<>();
+    for (Map.Entry<String, CompiledChild> entry : specs.entrySet()) {
+      String key = entry.getKey();
+      if (barChildren.contains(key) && !runtimeIds.contains(key)
+          && !runtimeIds.contains(key.substring(0, key.indexOf('#')))) {
+        compiled.put(key, entry.getValue());
+      }
+    }
+    return compiled;
+  }
+
+  private String getId(Element element) {
+    String id = element.getAttributeNS(ANDROID_NS, "id");
+    if (id.isEmpty()) {
+      return null;
+    }
+    try {
+      return ResourceValues.reference(id, "id", rPackage);
+    } catch (ResourceValues.UnsupportedValueException e) {
+      return null;
+    }
+  }
+
+  private static boolean isBar(Node node) {
+    if (!(node instanceof Element)) {
+      return false;
+    }
+    String tag = ((Element) node).getTagName();
+    return tag.equals(BAR_CLASS) || tag.endsWith(".CollapseRelativeBar");
+  }
+
+  private static boolean hasChildAttributes(Element element) {
+    return !getChildAttributes(element).isEmpty();
+  }
+
+  private static Map<String, Attr> getChildAttributes(Element element) {
+    Map<String, Attr> values = new TreeMap<>();
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      String namespace = attribute.getNamespaceURI();
+      if (namespace != null && namespace.startsWith(APP_NS_PREFIX)
+          && !namespace.equals(ANDROID_NS)
+          && CHILD_ATTRIBUTES.contains(attribute.getLocalName())) {
+        values.put(attribute.getLocalName(), attribute);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * the spec of a child and the cl* attributes it was compiled from, as the java sources of the
+   * R.attr fields, the string pairs of the dimensions and fractions and the TypedValue type and
+   * data pairs
+   */
+  private static final class CompiledChild {
+    final String spec;
+    final String attributeIds;
+    final String stringValues;
+    final String typedValues;
+
+    CompiledChild(String spec, String attributeIds, String stringValues, String typedValues) {
+      this.spec = spec;
+      this.attributeIds = attributeIds;
+      this.stringValues = stringValues;
+      this.typedValues = typedValues;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CompiledChild)) {
+        return false;
+      }
+      CompiledChild other = (CompiledChild) o;
+      return spec.equals(other.spec) && attributeIds.equals(other.attributeIds)
+          && stringValues.equals(other.stringValues) && typedValues.equals(other.typedValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return spec.hashCode() * 31 + typedValues.hashCode();
+    }
+  }
+
+  /**
+   * the attribute count of the element at runtime, aapt drops the namespace declarations and the
+   * tools attributes
+   */
+  private static int getAttributeCount(Element element) {
+    int count = 0;
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      String namespace = attributes.item(i).getNamespaceURI();
+      if (!XMLNS_NS.equals(namespace) && !TOOLS_NS.equals(namespace)) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,381 @@
+package me.touko.library.compiler;
+
+import java.util.Locale;
+
+/**
+ * convert the attribute values written in a layout into the java expressions which produce the
+ * same values as the TypedArray getters at runtime
+ */
+final class ResourceValues {
+  // TypedValue complex units and radixes, the same encoding aapt uses
+  static final int COMPLEX_UNIT_PX = 0;
+  static final int COMPLEX_UNIT_DIP = 1;
+  static final int COMPLEX_UNIT_SP = 2;
+  static final int COMPLEX_UNIT_PT = 3;
+  static final int COMPLEX_UNIT_IN = 4;
+  static final int COMPLEX_UNIT_MM = 5;
+  static final int COMPLEX_UNIT_FRACTION = 0;
+  static final int COMPLEX_UNIT_FRACTION_PARENT = 1;
+
+  // TypedValue types, with the data they are what aapt stores for an attribute value
+  static final int TYPE_REFERENCE = 0x01;
+  static final int TYPE_FLOAT = 0x04;
+  static final int TYPE_DIMENSION = 0x05;
+  static final int TYPE_FRACTION = 0x06;
+  static final int TYPE_INT_DEC = 0x10;
+  static final int TYPE_INT_HEX = 0x11;
+  static final int TYPE_INT_COLOR_ARGB8 = 0x1c;
+
+  private static final int COMPLEX_RADIX_SHIFT = 4;
+  private static final int COMPLEX_RADIX_23P0 = 0;
+  private static final int COMPLEX_RADIX_16P7 = 1;
+  private static final int COMPLEX_RADIX_8P15 = 2;
+  private static final int COMPLEX_RADIX_0P23 = 3;
+  private static final int COMPLEX_RADIX_MASK = 0x3;
+  private static final int COMPLEX_MANTISSA_SHIFT = 8;
+  private static final int COMPLEX_MANTISSA_MASK = 0xffffff;
+  private static final int COMPLEX_UNIT_MASK = 0xf;
+  private static final float MANTISSA_MULT = 1.0f / (1 << COMPLEX_MANTISSA_SHIFT);
+  private static final float[] RADIX_MULTS = {1.0f * MANTISSA_MULT,
+      1.0f / (1 << 7) * MANTISSA_MULT, 1.0f / (1 << 15) * MANTISSA_MULT,
+      1.0f / (1 << 23) * MANTISSA_MULT};
+  // the units TypedValue.coerceToString prints
+  private static final String[] COERCED_DIMENSION_UNITS = {"px", "dip", "sp", "pt", "in", "mm"};
+  private static final String[] COERCED_FRACTION_UNITS = {"%", "%p"};
+
+  // the attribute formats, and the resource type a reference of each format points to
+  static final int FORMAT_FLOAT = 0;
+  static final int FORMAT_DIMENSION = 1;
+  static final int FORMAT_FRACTION = 2;
+  static final int FORMAT_COLOR = 3;
+  static final int FORMAT_INTEGER = 4;
+  static final int FORMAT_INTERPOLATOR = 5;
+  private static final String[] REFERENCE_TYPES =
+      {null, "dimen", "fraction", "color", "integer", "interpolator"};
+
+  private static final String[] DIMENSION_UNITS = {"px", "dip", "dp", "sp", "pt", "in", "mm"};
+  private static final int[] DIMENSION_UNIT_VALUES = {COMPLEX_UNIT_PX, COMPLEX_UNIT_DIP,
+      COMPLEX_UNIT_DIP, COMPLEX_UNIT_SP, COMPLEX_UNIT_PT, COMPLEX_UNIT_IN, COMPLEX_UNIT_MM};
+
+  private ResourceValues() {
+  }
+
+  /**
+   * the value can't be compiled, the child falls back to parsing its attributes at runtime
+   */
+  static class UnsupportedValueException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedValueException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * encode a float into TypedValue complex data, bit for bit what aapt stores for the value
+   */
+  static int encodeComplex(float value, int unit) {
+    boolean negative = value < 0;
+    if (negative) {
+      value = -value;
+    }
+    long bits = (long) (value * (1 << 23) + .5f);
+    int radix;
+    int shift;
+    if ((bits & 0x7fffff) == 0) {
+      radix = COMPLEX_RADIX_23P0;
+      shift = 23;
+    } else if ((bits & 0xffffffffff800000L) == 0) {
+      radix = COMPLEX_RADIX_0P23;
+      shift = 0;
+    } else if ((bits & 0xffffffff80000000L) == 0) {
+      radix = COMPLEX_RADIX_8P15;
+      shift = 8;
+    } else if ((bits & 0xffffff8000000000L) == 0) {
+      radix = COMPLEX_RADIX_16P7;
+      shift = 16;
+    } else {
+      radix = COMPLEX_RADIX_23P0;
+      shift = 23;
+    }
+    int mantissa = (int) ((bits >> shift) & COMPLEX_MANTISSA_MASK);
+    if (negative) {
+      mantissa = -mantissa & COMPLEX_MANTISSA_MASK;
+    }
+    return radix << COMPLEX_RADIX_SHIFT | mantissa << COMPLEX_MANTISSA_SHIFT | unit;
+  }
+
+  /**
+   * decode TypedValue complex data, the same float TypedValue.complexToFloat returns
+   */
+  static float complexToFloat(int complex) {
+    return (complex & (COMPLEX_MANTISSA_MASK << COMPLEX_MANTISSA_SHIFT))
+        * RADIX_MULTS[(complex >> COMPLEX_RADIX_SHIFT) & COMPLEX_RADIX_MASK];
+  }
+
+  /**
+   * @param getter the TypedArray getter the library parses the attribute with, getDimension,
+   *               getDimensionPixelSize or getDimensionPixelOffset
+   */
+  static String dimension(String value, String getter, String rPackage)
+      throws UnsupportedValueException {
+    if (isReference(value)) {
+      return "res." + getter + "(" + reference(value, "dimen", rPackage) + ")";
+    }
+    // TypedArray.getDimension* are these TypedValue conversions of the stored complex data
+    String method = getter.replace("getDimension", "complexToDimension");
+    return "TypedValue." + method + "(" + hex(dimensionComplex(value)) + ", metrics)";
+  }
+
+  private static int dimensionComplex(String value) throws UnsupportedValueException {
+    for (int i = 0; i < DIMENSION_UNITS.length; i++) {
+      String unit = DIMENSION_UNITS[i];
+      if (value.endsWith(unit)) {
+        float number = parseFloat(value.substring(0, value.length() - unit.length()), value);
+        return encodeComplex(number, DIMENSION_UNIT_VALUES[i]);
+      }
+    }
+    throw new UnsupportedValueException("not a dimension: " + value);
+  }
+
+  static String fraction(String value, String rPackage) throws UnsupportedValueException {
+    if (isReference(value)) {
+      return "res.getFraction(" + reference(value, "fraction", rPackage) + ", 1, 1)";
+    }
+    return "TypedValue.complexToFraction(" + hex(fractionComplex(value)) + ", 1, 1)";
+  }
+
+  private static int fractionComplex(String value) throws UnsupportedValueException {
+    int unit;
+    String number;
+    if (value.endsWith("%p")) {
+      unit = COMPLEX_UNIT_FRACTION_PARENT;
+      number = value.substring(0, value.length() - 2);
+    } else if (value.endsWith("%")) {
+      unit = COMPLEX_UNIT_FRACTION;
+      number = value.substring(0, value.length() - 1);
+    } else {
+      throw new UnsupportedValueException("not a fraction: " + value);
+    }
+    return encodeComplex(parseFloat(number, value) / 100, unit);
+  }
+
+  static String floatValue(String value) throws UnsupportedValueException {
+    return Float.toString(parseFloat(value, value)) + "f";
+  }
+
+  static float parseFloat(String number, String value) throws UnsupportedValueException {
+    try {
+      float result = Float.parseFloat(number.trim());
+      if (!Float.isNaN(result) && !Float.isInfinite(result)) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // not a float
+    }
+    throw new UnsupportedValueException("not a float: " + value);
+  }
+
+  static String integer(String value, String rPackage) throws UnsupportedValueException {
+    if (isReference(value)) {
+      return "res.getInteger(" + reference(value, "integer", rPackage) + ")";
+    }
+    return Integer.toString(parseInteger(value));
+  }
+
+  private static int parseInteger(String value) throws UnsupportedValueException {
+    try {
+      String trimmed = value.trim();
+      if (isHex(trimmed)) {
+        return (int) Long.parseLong(trimmed.substring(2), 16);
+      }
+      return Integer.parseInt(trimmed);
+    } catch (NumberFormatException e) {
+      throw new UnsupportedValueException("not an integer: " + value);
+    }
+  }
+
+  private static boolean isHex(String value) {
+    return value.startsWith("0x") || value.startsWith("0X");
+  }
+
+  static String color(String value, String rPackage) throws UnsupportedValueException {
+    if (isReference(value)) {
+      return "ContextCompat.getColor(context, " + reference(value, "color", rPackage) + ")";
+    }
+    return hex(parseColor(value));
+  }
+
+  private static int parseColor(String value) throws UnsupportedValueException {
+    if (!value.startsWith("#")) {
+      throw new UnsupportedValueException("not a color: " + value);
+    }
+    String digits = value.substring(1);
+    if (digits.length() == 3 || digits.length() == 4) {
+      // #RGB and #ARGB repeat each digit
+      StringBuilder expanded = new StringBuilder();
+      for (int i = 0; i < digits.length(); i++) {
+        expanded.append(digits.charAt(i)).append(digits.charAt(i));
+      }
+      digits = expanded.toString();
+    }
+    if (digits.length() == 6) {
+      digits = "ff" + digits;
+    }
+    if (digits.length() != 8) {
+      throw new UnsupportedValueException("not a color: " + value);
+    }
+    try {
+      return (int) Long.parseLong(digits, 16);
+    } catch (NumberFormatException e) {
+      throw new UnsupportedValueException("not a color: " + value);
+    }
+  }
+
+  /**
+   * the flag or enum value by name, names can be combined with | for flags
+   */
+  static String named(String value, String[] names, int[] values)
+      throws UnsupportedValueException {
+    int result = 0;
+    for (String name : value.split("\\|")) {
+      String trimmed = name.trim();
+      int index = -1;
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(trimmed)) {
+          index = i;
+          break;
+        }
+      }
+      if (index < 0) {
+        try {
+          result |= Integer.parseInt(trimmed);
+        } catch (NumberFormatException e) {
+          throw new UnsupportedValueException("unknown value: " + value);
+        }
+      } else {
+        result |= values[index];
+      }
+    }
+    return Integer.toString(result);
+  }
+
+  /**
+   * the TypedValue type and data aapt stores for a value, as the java expressions of an int pair
+   *
+   * @param format one of the FORMAT_* the attribute is declared with
+   */
+  static String typedValue(String value, int format, String rPackage)
+      throws UnsupportedValueException {
+    if (isReference(value) && REFERENCE_TYPES[format] != null) {
+      return hex(TYPE_REFERENCE) + ", " + reference(value, REFERENCE_TYPES[format], rPackage);
+    }
+    switch (format) {
+      case FORMAT_FLOAT:
+        return hex(TYPE_FLOAT) + ", " + hex(Float.floatToIntBits(parseFloat(value, value)));
+      case FORMAT_DIMENSION:
+        return hex(TYPE_DIMENSION) + ", " + hex(dimensionComplex(value));
+      case FORMAT_FRACTION:
+        return hex(TYPE_FRACTION) + ", " + hex(fractionComplex(value));
+      case FORMAT_COLOR:
+        return hex(TYPE_INT_COLOR_ARGB8) + ", " + hex(parseColor(value));
+      case FORMAT_INTEGER:
+        return hex(isHex(value.trim()) ? TYPE_INT_HEX : TYPE_INT_DEC) + ", "
+            + hex(parseInteger(value));
+      default:
+        throw new UnsupportedValueException("not a resource reference: " + value);
+    }
+  }
+
+  /**
+   * AttributeSet has no typed getter for dimensions and fractions, they are compared by the
+   * string getAttributeValue returns: the value as written in the layout, or the data as
+   * TypedValue.coerceToString prints it when aapt didn't keep the raw value. Two null literals
+   * for the other values
+   *
+   * @param raw the value as written in the layout
+   */
+  static String stringValues(String raw, String value, int format)
+      throws UnsupportedValueException {
+    if (!isReference(value) && format == FORMAT_DIMENSION) {
+      int data = dimensionComplex(value);
+      return quote(raw) + ", " + quote(Float.toString(complexToFloat(data))
+          + COERCED_DIMENSION_UNITS[data & COMPLEX_UNIT_MASK]);
+    }
+    if (!isReference(value) && format == FORMAT_FRACTION) {
+      int data = fractionComplex(value);
+      return quote(raw) + ", " + quote(Float.toString(complexToFloat(data) * 100)
+          + COERCED_FRACTION_UNITS[data & COMPLEX_UNIT_MASK]);
+    }
+    return "null, null";
+  }
+
+  /**
+   * the TypedValue type and data of an enum or flag value, aapt stores enums in decimal and
+   * flags in hex
+   */
+  static String typedNamed(String value, String[] names, int[] values, boolean flags)
+      throws UnsupportedValueException {
+    return hex(flags ? TYPE_INT_HEX : TYPE_INT_DEC) + ", "
+        + hex(Integer.parseInt(named(value, names, values)));
+  }
+
+  static boolean isReference(String value) {
+    return value.startsWith("@");
+  }
+
+  /**
+   * the R field of a resource reference like @dimen/title or @android:interpolator/linear
+   *
+   * @param defaultType the type used by the library getter, other types are only accepted for
+   *                    interpolators, which are also read from anim resources
+   */
+  static String reference(String value, String defaultType, String rPackage)
+      throws UnsupportedValueException {
+    if (!isReference(value) || value.equals("@null") || value.equals("@empty")) {
+      throw new UnsupportedValueException("not a resource reference: " + value);
+    }
+    String name = value.substring(value.startsWith("@+") ? 2 : 1);
+    String packageName = rPackage;
+    int colon = name.indexOf(':');
+    if (colon >= 0) {
+      packageName = name.substring(0, colon);
+      name = name.substring(colon + 1);
+    }
+    int slash = name.indexOf('/');
+    if (slash <= 0) {
+      throw new UnsupportedValueException("not a resource reference: " + value);
+    }
+    String type = name.substring(0, slash);
+    String field = name.substring(slash + 1).replace('.', '_');
+    if (!type.equals(defaultType)
+        && !(defaultType.equals("interpolator") && type.equals("anim"))) {
+      throw new UnsupportedValueException("unexpected resource type: " + value);
+    }
+    String r = packageName.equals(rPackage) ? "R" : packageName + ".R";
+    return r + "." + type + "." + field;
+  }
+
+  /**
+   * a java string literal of the value
+   */
+  static String quote(String value) {
+    StringBuilder builder = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        // not a unicode escape, those are translated before the literal is parsed
+        builder.append(String.format(Locale.US, "\\%03o", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  private static String hex(int value) {
+    return String.format(Locale.US, "0x%08x", value);
+  }
+}
@@ -0,0 +1,104 @@
+package me.touko.library.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CollapseSpecCompilerTest {
+  private static final String HEADER = "<me.touko.library.ui.CollapseRelativeBar"
+      + " xmlns:android=\"http://schemas.android.com/apk/res/android\""
+      + " xmlns:app=\"http://schemas.android.com/apk/res-auto\""
+      + " xmlns:tools=\"http://schemas.android.com/tools\""
+      + " android:layout_width=\"match_parent\" android:layout_height=\"200dp\">";
+  private static final String FOOTER = "</me.touko.library.ui.CollapseRelativeBar>";
+
+  @Test
+  public void complexDataMatchesAapt() {
+    assertEquals(0x00001001, ResourceValues.encodeComplex(16f, ResourceValues.COMPLEX_UNIT_DIP));
+    assertEquals(0x40000031, ResourceValues.encodeComplex(0.5f, ResourceValues.COMPLEX_UNIT_DIP));
+    assertEquals(0xfffff000, ResourceValues.encodeComplex(-16f, ResourceValues.COMPLEX_UNIT_PX));
+  }
+
+  @Test
+  public void barChildrenAreCompiledByIdAndAttributeCount() throws Exception {
+    CollapseSpecCompiler compiler = new CollapseSpecCompiler("com.touko.ui");
+    compiler.addLayout(parse(HEADER
+        + "<TextView android:id=\"@+id/title\" android:layout_width=\"wrap_content\""
+        + " android:layout_height=\"wrap_content\" tools:text=\"title\""
+        + " app:clScale=\"0.6\" app:clMarginLeft=\"16dp\" app:clTextColor=\"#fff\""
+        + " app:clAlphaEnd=\"40%\""
+        + " app:clInterpolator=\"@android:interpolator/decelerate_quad\"/>"
+        + "<View android:id=\"@+id/scrim\" android:layout_width=\"match_parent\""
+        + " android:layout_height=\"match_parent\" app:clScrim=\"@color/black\"/>"
+        + FOOTER));
+
+    Map<String, String> specs = compiler.getCompiledSpecs();
+    String title = specs.get("R.id.title#8");
+    assertTrue(title.contains(".setScale(0.6f)"));
+    assertTrue(title.contains(
+        ".setMarginLeft(TypedValue.complexToDimensionPixelSize(0x00001001, metrics))"));
+    assertTrue(title.contains(".setTextColor(0xffffffff)"));
+    assertTrue(title.contains(".setAlphaRange(0f, TypedValue.complexToFraction("));
+    assertTrue(title.contains("loadInterpolator(context, android.R.interpolator.decelerate_quad)"));
+    // the scrim lives on the LayoutParams, parsed at runtime
+    assertFalse(specs.containsKey("R.id.scrim#4"));
+  }
+
+  @Test
+  public void compiledSpecsCheckTheAttributesTheyWereCompiledFrom() throws Exception {
+    CollapseSpecCompiler compiler = new CollapseSpecCompiler("com.touko.ui");
+    compiler.addLayout(parse(HEADER
+        + "<TextView android:id=\"@+id/title\" app:clMarginLeft=\"16dp\" app:clMode=\"out\""
+        + " app:clAlphaEnd=\"40%\" app:clTextColor=\"@color/title\"/>"
+        + FOOTER));
+
+    String source = compiler.generate();
+    // sorted by name
+    assertTrue(source.contains("ATTRS_0 = {R.attr.clAlphaEnd, R.attr.clMarginLeft, R.attr.clMode,"
+        + " R.attr.clTextColor}"));
+    // dimensions and fractions as written and as TypedValue.coerceToString prints them
+    assertTrue(source.contains("STRING_VALUES_0 = {\"40%\", \"39.999996%\", \"16dp\","
+        + " \"16.0dip\", null, null, null, null}"));
+    assertTrue(source.contains("VALUES_0 = {0x00000006, 0x33333330, 0x00000005, 0x00001001,"
+        + " 0x00000011, 0x00000001, 0x00000001, R.color.title}"));
+    assertTrue(source.contains("getCollapseSpec(Context context, int viewId,\n"
+        + "      AttributeSet attrs)"));
+    assertTrue(source.contains("CollapseRelativeBar.CompiledAttributes.sort(ATTRS_0,"
+        + " STRING_VALUES_0, VALUES_0);"));
+    assertTrue(source.contains("if (!CollapseRelativeBar.CompiledAttributes.matches(attrs, ATTRS_0,"
+        + " STRING_VALUES_0, VALUES_0)) {\n        return null;"));
+  }
+
+  @Test
+  public void conflictingChildrenAreParsedAtRuntime() throws Exception {
+    CollapseSpecCompiler compiler = new CollapseSpecCompiler("com.touko.ui");
+    compiler.addLayout(parse(HEADER
+        + "<TextView android:id=\"@+id/title\" app:clScale=\"0.6\"/>"
+        + "<TextView android:id=\"@+id/subtitle\" app:clAlpha=\"0\"/>"
+        + "<ImageView android:id=\"@+id/icon\" app:clScale=\"?attr/iconScale\"/>"
+        + FOOTER));
+    compiler.addLayout(parse(HEADER
+        + "<TextView android:id=\"@+id/title\" app:clScale=\"0.8\"/>"
+        + "<TextView android:id=\"@+id/subtitle\" app:clAlpha=\"0\"/>"
+        + FOOTER));
+
+    Map<String, String> specs = compiler.getCompiledSpecs();
+    assertFalse(specs.containsKey("R.id.title#2"));
+    assertFalse(specs.containsKey("R.id.icon#2"));
+    assertTrue(specs.containsKey("R.id.subtitle#2"));
+  }
+
+  private static Document parse(String layout) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(layout.getBytes("UTF-8")));
+  }
+}